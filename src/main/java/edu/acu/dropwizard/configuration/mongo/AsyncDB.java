@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import java.util.concurrent.Callable;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class AsyncDB {
+
+    @NonNull
+    @Getter
+    private final DB db;
+
+    @NonNull
+    private final MongoAsyncExecutor executor;
+
+    public AsyncDBCollection getCollection(String name) {
+        return new AsyncDBCollection(db.getCollection(name), executor);
+    }
+
+    public ListenableFuture<CommandResult> command(final DBObject command) {
+        return executor.submit(new Callable<CommandResult>() {
+
+            @Override
+            public CommandResult call() throws Exception {
+                return db.command(command);
+            }
+
+        });
+    }
+
+    public ListenableFuture<CommandResult> getStats() {
+        return executor.submit(new Callable<CommandResult>() {
+
+            @Override
+            public CommandResult call() throws Exception {
+                return db.getStats();
+            }
+
+        });
+    }
+
+}
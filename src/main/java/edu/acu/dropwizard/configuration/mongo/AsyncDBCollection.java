@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mongodb.AggregationOptions;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import java.util.List;
+import java.util.concurrent.Callable;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The common {@link DBCollection} operations, run on a
+ * {@link MongoAsyncExecutor}.  Cursors are read to the end on the executor, so
+ * keep result sets small or use a limit.
+ */
+@RequiredArgsConstructor
+public class AsyncDBCollection {
+
+    @NonNull
+    @Getter
+    private final DBCollection collection;
+
+    @NonNull
+    private final MongoAsyncExecutor executor;
+
+    public ListenableFuture<DBObject> findOne(DBObject query) {
+        return findOne(query, null);
+    }
+
+    public ListenableFuture<DBObject> findOne(final DBObject query, final DBObject fields) {
+        return executor.submit(new Callable<DBObject>() {
+
+            @Override
+            public DBObject call() throws Exception {
+                return collection.findOne(query, fields);
+            }
+
+        });
+    }
+
+    public ListenableFuture<List<DBObject>> find(DBObject query) {
+        return find(query, null, 0);
+    }
+
+    public ListenableFuture<List<DBObject>> find(final DBObject query, final DBObject fields, final int limit) {
+        return executor.submit(new Callable<List<DBObject>>() {
+
+            @Override
+            public List<DBObject> call() throws Exception {
+                return collection.find(query, fields).limit(limit).toArray();
+            }
+
+        });
+    }
+
+    public ListenableFuture<Long> count(final DBObject query) {
+        return executor.submit(new Callable<Long>() {
+
+            @Override
+            public Long call() throws Exception {
+                return collection.count(query);
+            }
+
+        });
+    }
+
+    public ListenableFuture<List<DBObject>> aggregate(final List<DBObject> pipeline) {
+        return executor.submit(new Callable<List<DBObject>>() {
+
+            @Override
+            public List<DBObject> call() throws Exception {
+                Cursor cursor = collection.aggregate(pipeline, AggregationOptions.builder()
+                        .outputMode(AggregationOptions.OutputMode.CURSOR)
+                        .build());
+                try {
+                    return Lists.<DBObject>newArrayList(cursor);
+                } finally {
+                    cursor.close();
+                }
+            }
+
+        });
+    }
+
+    public ListenableFuture<WriteResult> insert(final DBObject... documents) {
+        return executor.submit(new Callable<WriteResult>() {
+
+            @Override
+            public WriteResult call() throws Exception {
+                return collection.insert(documents);
+            }
+
+        });
+    }
+
+    public ListenableFuture<WriteResult> update(final DBObject query, final DBObject update, final boolean upsert, final boolean multi) {
+        return executor.submit(new Callable<WriteResult>() {
+
+            @Override
+            public WriteResult call() throws Exception {
+                return collection.update(query, update, upsert, multi);
+            }
+
+        });
+    }
+
+    public ListenableFuture<WriteResult> remove(final DBObject query) {
+        return executor.submit(new Callable<WriteResult>() {
+
+            @Override
+            public WriteResult call() throws Exception {
+                return collection.remove(query);
+            }
+
+        });
+    }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.MongoException;
+import com.mongodb.util.JSON;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads NDJSON (one JSON document per line) or BSON dump files into a
+ * collection.  The file is split into about one region per thread on document
+ * boundaries, each region is memory mapped and parsed on its own thread, and
+ * documents are
+ * written in unordered bulk batches with at most {@code batchesInFlight}
+ * batches being written at once.  Documents the server rejects (duplicate
+ * keys and so on) are counted as errors and the import carries on.
+ */
+public class BulkImporter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkImporter.class);
+
+    public enum Format {
+
+        NDJSON,
+        BSON;
+
+        public static Format forFile(File file) {
+            return file.getName().endsWith(".bson") ? BSON : NDJSON;
+        }
+
+    }
+
+    private static final long MIN_REGION_SIZE = 1024 * 1024;
+    private static final long MAX_REGION_SIZE = 64 * 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 8192;
+
+    private final DBCollection collection;
+    private final long minRegionSize;
+    private final long maxRegionSize;
+    private final int threads;
+    private final int batchSize;
+    private final int batchesInFlight;
+    private final Semaphore inFlight;
+    private final ExecutorService writers;
+
+    @Getter
+    private final AtomicLong bytesRead = new AtomicLong();
+    @Getter
+    private final AtomicLong documentsWritten = new AtomicLong();
+    @Getter
+    private final AtomicLong errors = new AtomicLong();
+
+    public BulkImporter(DBCollection collection, int threads, int batchSize, int batchesInFlight) {
+        this(collection, MIN_REGION_SIZE, MAX_REGION_SIZE, threads, batchSize, batchesInFlight);
+    }
+
+    BulkImporter(@NonNull DBCollection collection, long minRegionSize, long maxRegionSize, int threads, int batchSize, int batchesInFlight) {
+        this.collection = collection;
+        this.minRegionSize = minRegionSize;
+        this.maxRegionSize = maxRegionSize;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.batchesInFlight = batchesInFlight;
+        this.inFlight = new Semaphore(batchesInFlight);
+        this.writers = Executors.newFixedThreadPool(batchesInFlight, new ThreadFactoryBuilder()
+                .setNameFormat("mongo-import-write-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Imports {@code file}, returning once every batch has been written, even
+     * if parsing fails.
+     */
+    public void importFile(File file, final Format format) throws IOException, InterruptedException {
+        ExecutorService parsers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("mongo-import-parse-%d")
+                .setDaemon(true)
+                .build());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            List<Future<?>> futures = Lists.newArrayList();
+            long size = channel.size();
+            long regionSize = Math.max(minRegionSize, Math.min(maxRegionSize, (size + threads - 1) / threads));
+            long start = 0;
+            while (start < size) {
+                // Each region is handed to a parser as soon as its end is
+                // found, so parsing starts while the later regions are split
+                final long from = start;
+                final long end = regionEnd(channel, format, start, regionSize);
+                futures.add(parsers.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        parse(channel.map(FileChannel.MapMode.READ_ONLY, from, end - from), format);
+                        return null;
+                    }
+
+                }));
+                start = end;
+            }
+            for (Future<?> future : futures) {
+                get(future);
+            }
+        } finally {
+            // Stop the other parsers, then wait for the batches already handed
+            // to the writers, so the caller can safely close the client
+            parsers.shutdownNow();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (parsers.awaitTermination(1, TimeUnit.MINUTES)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            inFlight.acquireUninterruptibly(batchesInFlight);
+            inFlight.release(batchesInFlight);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        writers.shutdown();
+    }
+
+    private static void get(Future<?> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static long regionEnd(FileChannel channel, Format format, long position, long regionSize) throws IOException {
+        long size = channel.size();
+        long end = Math.min(size, position + regionSize);
+        if (end == size) {
+            return end;
+        }
+        return format == Format.BSON ? nextDocument(channel, position, end) : nextLine(channel, end);
+    }
+
+    /**
+     * First offset after a newline at or after {@code position}.
+     */
+    private static long nextLine(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * First document boundary at or after {@code target}, walking the length
+     * prefixes from {@code position}, which must be a boundary.  The region is
+     * mapped so the walk reads memory rather than making a call per document.
+     */
+    private static long nextDocument(FileChannel channel, long position, long target) throws IOException {
+        long size = channel.size();
+        // Room for the length of a document starting just before target
+        long mapped = Math.min(size, target + 4) - position;
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, mapped);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        long offset = 0;
+        while (position + offset < target) {
+            if (offset + 4 > mapped) {
+                throw new IOException("Truncated BSON document at offset " + (position + offset));
+            }
+            int length = region.getInt((int) offset);
+            if (length < 5) {
+                throw new IOException("Corrupt BSON document at offset " + (position + offset));
+            }
+            offset += length;
+        }
+        return Math.min(position + offset, size);
+    }
+
+    private void parse(MappedByteBuffer region, Format format) throws InterruptedException {
+        List<DBObject> batch = Lists.newArrayListWithCapacity(batchSize);
+        DefaultDBDecoder decoder = new DefaultDBDecoder();
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        while (region.hasRemaining()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int start = region.position();
+            DBObject document;
+            if (format == Format.BSON) {
+                byte[] bytes = new byte[region.getInt(start)];
+                region.get(bytes);
+                document = decoder.decode(bytes, collection);
+            } else {
+                int end = start;
+                while (end < region.limit() && region.get(end) != '\n') {
+                    end++;
+                }
+                byte[] bytes = new byte[end - start];
+                region.get(bytes);
+                if (region.hasRemaining()) {
+                    region.get();  // The newline
+                }
+                String line = new String(bytes, StandardCharsets.UTF_8).trim();
+                document = line.isEmpty() ? null : (DBObject) JSON.parse(line);
+            }
+            bytesRead.addAndGet(region.position() - start);
+            if (document == null) {
+                continue;
+            }
+            batch.add(document);
+            if (batch.size() == batchSize) {
+                write(batch);
+                batch = Lists.newArrayListWithCapacity(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    /**
+     * Blocks while {@code batchesInFlight} batches are already being written.
+     */
+    private void write(final List<DBObject> batch) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            writers.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+                        for (DBObject document : batch) {
+                            bulk.insert(document);
+                        }
+                        documentsWritten.addAndGet(bulk.execute().getInsertedCount());
+                    } catch (BulkWriteException e) {
+                        documentsWritten.addAndGet(e.getWriteResult().getInsertedCount());
+                        errors.addAndGet(e.getWriteErrors().size());
+                    } catch (MongoException e) {
+                        LOGGER.warn("Unable to write a batch of {} documents", batch.size(), e);
+                        errors.addAndGet(batch.size());
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCallback;
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBEncoder;
+import com.mongodb.DBEncoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBCallback;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.MongoException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.bson.BSONObject;
+import org.bson.io.OutputBuffer;
+import org.bson.types.Binary;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Compresses the configured top level fields of a collection into user defined
+ * BSON binary on write, and decompresses them the first time they are read.
+ * Only {@code String} and {@code byte[]} values are compressed.  Fields set
+ * through {@code $set} or {@code $setOnInsert} are compressed as well.
+ * Binary values in those fields that this codec didn't write are returned
+ * untouched.  Query results are always {@code BasicDBObject}s, so this can't
+ * be combined with the {@code lazy} decoders.
+ * <p>
+ * Only the collection's own reads and writes go through the codec.  Commands
+ * such as {@code findAndModify} run through the database's encoder and
+ * decoder, so {@link DBCollection#findAndModify} would store values
+ * uncompressed and return compressed fields as raw {@link Binary}.  Use
+ * {@link #findAndModify} instead.
+ */
+public class FieldCompressionCodec {
+
+    @RequiredArgsConstructor
+    public enum Algorithm {
+
+        LZ4((byte) 1) {
+
+            @Override
+            byte[] compress(byte[] raw) {
+                return Lz4.COMPRESSOR.compress(raw);
+            }
+
+            @Override
+            void decompress(byte[] source, int offset, int length, byte[] destination) throws IOException {
+                // The safe decompressor checks its input, so it can't overrun on a foreign value
+                if (Lz4.DECOMPRESSOR.decompress(source, offset, length, destination, 0, destination.length) != destination.length) {
+                    throw new IOException("Uncompressed length doesn't match");
+                }
+            }
+
+        },
+        SNAPPY((byte) 2) {
+
+            @Override
+            byte[] compress(byte[] raw) throws IOException {
+                return Snappy.compress(raw);
+            }
+
+            @Override
+            void decompress(byte[] source, int offset, int length, byte[] destination) throws IOException {
+                if (Snappy.uncompressedLength(source, offset, length) != destination.length) {
+                    throw new IOException("Uncompressed length doesn't match");
+                }
+                Snappy.uncompress(source, offset, length, destination, 0);
+            }
+
+        };
+
+        @Getter
+        private final byte id;
+
+        abstract byte[] compress(byte[] raw) throws IOException;
+
+        abstract void decompress(byte[] source, int offset, int length, byte[] destination) throws IOException;
+
+        static Algorithm forId(byte id) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.id == id) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * Looking up the fastest LZ4 implementation tries to load the native
+     * library, so do it once.  A holder keeps lz4 optional when only Snappy is
+     * used.
+     */
+    private static class Lz4 {
+
+        static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    }
+
+    public static final byte BINARY_SUBTYPE = (byte) 0x80;
+
+    // algorithm (1) + value type (1) + uncompressed length (4)
+    private static final int HEADER_LENGTH = 6;
+    // Neither LZ4 nor Snappy can expand data by more than this
+    private static final int MAX_EXPANSION = 255;
+    private static final byte TYPE_BYTES = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final Set<String> UPDATE_OPERATORS = ImmutableSet.of("$set", "$setOnInsert");
+
+    private final Algorithm algorithm;
+    private final Set<String> fields;
+    private final int minSize;
+    private final Histogram ratio;
+    private final Meter bytesSaved;
+
+    @Getter
+    private final DBEncoderFactory encoderFactory = new DBEncoderFactory() {
+
+        @Override
+        public DBEncoder create() {
+            return new Encoder();
+        }
+
+    };
+
+    @Getter
+    private final DBDecoderFactory decoderFactory = new CodecDecoderFactory();
+
+    public FieldCompressionCodec(@NonNull FieldCompressionRepresentation representation, @NonNull MetricRegistry metrics, @NonNull String namespace) {
+        this.algorithm = representation.getAlgorithm();
+        this.fields = ImmutableSet.copyOf(representation.getFields());
+        this.minSize = representation.getMinSize();
+        this.ratio = metrics.histogram(MetricRegistry.name(FieldCompressionCodec.class, namespace, "compression-ratio"));
+        this.bytesSaved = metrics.meter(MetricRegistry.name(FieldCompressionCodec.class, namespace, "bytes-saved"));
+    }
+
+    /**
+     * {@link DBCollection#findAndModify(DBObject, DBObject, DBObject, boolean, DBObject, boolean, boolean)}
+     * that compresses {@code update} and decompresses the result when
+     * {@code collection} has field compression configured.
+     */
+    public static DBObject findAndModify(DBCollection collection, DBObject query, DBObject fields, DBObject sort, boolean remove, DBObject update, boolean returnNew, boolean upsert) {
+        if (!(collection.getDBDecoderFactory() instanceof CodecDecoderFactory)) {
+            return collection.findAndModify(query, fields, sort, remove, update, returnNew, upsert);
+        }
+        FieldCompressionCodec codec = ((CodecDecoderFactory) collection.getDBDecoderFactory()).getCodec();
+        DBObject result = collection.findAndModify(query, fields, sort, remove,
+                update == null ? null : (DBObject) codec.compressFields(update), returnNew, upsert);
+        return result == null ? null : codec.decompressFields(result);
+    }
+
+    private DBObject decompressFields(DBObject o) {
+        for (String field : fields) {
+            Object value = o.get(field);
+            if (value instanceof Binary && ((Binary) value).getType() == BINARY_SUBTYPE) {
+                o.put(field, decompress((Binary) value));
+            }
+        }
+        return o;
+    }
+
+    private BSONObject compressFields(BSONObject o) {
+        if (Collections.disjoint(o.keySet(), fields) && Collections.disjoint(o.keySet(), UPDATE_OPERATORS)) {
+            return o;
+        }
+        // Never modify the caller's object, build a copy to encode instead
+        BasicDBObject copy = new BasicDBObject();
+        for (String key : o.keySet()) {
+            Object value = o.get(key);
+            if (fields.contains(key)) {
+                value = compress(value);
+            } else if (UPDATE_OPERATORS.contains(key) && value instanceof BSONObject) {
+                value = compressFields((BSONObject) value);
+            }
+            copy.put(key, value);
+        }
+        return copy;
+    }
+
+    Object compress(Object value) {
+        byte type;
+        byte[] raw;
+        if (value instanceof String) {
+            type = TYPE_STRING;
+            raw = ((String) value).getBytes(StandardCharsets.UTF_8);
+        } else if (value instanceof byte[]) {
+            type = TYPE_BYTES;
+            raw = (byte[]) value;
+        } else {
+            return value;
+        }
+        if (raw.length < minSize) {
+            return value;
+        }
+
+        byte[] compressed;
+        try {
+            compressed = algorithm.compress(raw);
+        } catch (IOException e) {
+            throw new MongoException("Unable to compress field value", e);
+        }
+        if (compressed.length + HEADER_LENGTH >= raw.length) {
+            return value;  // Not worth it
+        }
+        ratio.update(100L * compressed.length / raw.length);
+        bytesSaved.mark(raw.length - compressed.length - HEADER_LENGTH);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + compressed.length);
+        buffer.put(algorithm.getId()).put(type).putInt(raw.length).put(compressed);
+        return new Binary(BINARY_SUBTYPE, buffer.array());
+    }
+
+    /**
+     * @return the original value, or {@code binary} itself if it wasn't
+     * written by this codec
+     */
+    Object decompress(Binary binary) {
+        byte[] data = binary.getData();
+        if (data.length <= HEADER_LENGTH) {
+            return binary;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        Algorithm compressedWith = Algorithm.forId(buffer.get());
+        byte type = buffer.get();
+        int length = buffer.getInt();
+        int compressedLength = data.length - HEADER_LENGTH;
+        if (compressedWith == null || (type != TYPE_STRING && type != TYPE_BYTES)
+                || length < 0 || length > (long) compressedLength * MAX_EXPANSION) {
+            return binary;
+        }
+        byte[] raw = new byte[length];
+        try {
+            compressedWith.decompress(data, HEADER_LENGTH, compressedLength, raw);
+        } catch (IOException | RuntimeException e) {
+            return binary;
+        }
+        return type == TYPE_STRING ? new String(raw, StandardCharsets.UTF_8) : raw;
+    }
+
+    private class Encoder extends DefaultDBEncoder {
+
+        @Override
+        public int writeObject(OutputBuffer buf, BSONObject o) {
+            return super.writeObject(buf, compressFields(o));
+        }
+
+    }
+
+    private class CodecDecoderFactory implements DBDecoderFactory {
+
+        @Override
+        public DBDecoder create() {
+            return new Decoder();
+        }
+
+        FieldCompressionCodec getCodec() {
+            return FieldCompressionCodec.this;
+        }
+
+    }
+
+    private class Decoder extends DefaultDBDecoder {
+
+        @Override
+        public DBCallback getDBCallback(DBCollection collection) {
+            return new Callback(collection);
+        }
+
+    }
+
+    private class Callback extends DefaultDBCallback {
+
+        private final DBCollection collection;
+
+        Callback(DBCollection collection) {
+            super(collection);
+            this.collection = collection;
+        }
+
+        @Override
+        public BSONObject create(boolean array, List<String> path) {
+            // Only top level documents, and only if the collection doesn't map to its own class
+            if (!array && (path == null || path.isEmpty()) && (collection == null || collection.getObjectClass() == null)) {
+                return new CompressedDBObject();
+            }
+            return super.create(array, path);
+        }
+
+    }
+
+    private class CompressedDBObject extends BasicDBObject {
+
+        @Override
+        public Object get(String key) {
+            Object value = super.get(key);
+            if (value instanceof Binary && ((Binary) value).getType() == BINARY_SUBTYPE && fields.contains(key)) {
+                Object decompressed = decompress((Binary) value);
+                if (decompressed != value) {
+                    value = decompressed;
+                    super.put(key, value);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            decompressAll();
+            return super.entrySet();
+        }
+
+        @Override
+        public Collection<Object> values() {
+            decompressAll();
+            return super.values();
+        }
+
+        private void decompressAll() {
+            for (String field : fields) {
+                get(field);
+            }
+        }
+
+    }
+
+}
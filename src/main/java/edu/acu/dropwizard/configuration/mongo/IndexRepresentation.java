@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.Maps;
+import java.util.LinkedHashMap;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.Pattern;
+import lombok.Getter;
+import org.hibernate.validator.constraints.NotEmpty;
+
+public class IndexRepresentation {
+
+    @Getter
+    @NotEmpty
+    @Pattern(regexp = "[^.]+\\..+", message = "must be of the form \"database.collection\"")
+    private String namespace;
+
+    /**
+     * Field name to direction or index type, in index order.
+     */
+    @Getter
+    @NotEmpty
+    private LinkedHashMap<String, Object> keys = Maps.newLinkedHashMap();
+
+    @Getter
+    private String name;
+
+    @Getter
+    private boolean unique = false;
+
+    @Getter
+    private boolean sparse = false;
+
+    @Getter
+    @Min(0)
+    private Integer expireAfterSeconds;
+
+}
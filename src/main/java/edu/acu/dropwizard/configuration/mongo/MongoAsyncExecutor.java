@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.NonNull;
+
+/**
+ * Runs blocking driver calls on a shared executor and hands back
+ * {@link ListenableFuture}s, so independent queries can run side by side.
+ * Use {@link MongoClientFactory#buildAsyncExecutor} to get one sized to the
+ * client's connection pool.
+ */
+public class MongoAsyncExecutor {
+
+    private final ListeningExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param executor runs the driver calls
+     * @param scheduler only used to time out futures, one thread is plenty
+     */
+    public MongoAsyncExecutor(@NonNull ExecutorService executor, @NonNull ScheduledExecutorService scheduler) {
+        this.executor = MoreExecutors.listeningDecorator(executor);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Fails the returned future with a {@link RejectedExecutionException}
+     * rather than throwing when the executor's queue is full.
+     */
+    public <V> ListenableFuture<V> submit(Callable<V> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    public AsyncDB wrap(DB db) {
+        return new AsyncDB(db, this);
+    }
+
+    public AsyncDBCollection wrap(DBCollection collection) {
+        return new AsyncDBCollection(collection, this);
+    }
+
+    /**
+     * Fails the returned future with a {@link TimeoutException} and cancels
+     * {@code future} if it hasn't completed in time.  {@code future} is
+     * cancelled before the timeout is reported.  Cancelling only abandons the
+     * future: interrupting a thread blocked in a socket read doesn't stop it,
+     * so the driver call and the operation on the server carry on.  Use
+     * {@code maxTime} or a socket timeout when the call itself has to stop.
+     */
+    public <V> ListenableFuture<V> withTimeout(final ListenableFuture<V> future, final long timeout, final TimeUnit unit) {
+        final SettableFuture<V> result = SettableFuture.create();
+        final AtomicBoolean done = new AtomicBoolean();
+        final ScheduledFuture<?> timer = scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    future.cancel(true);
+                    result.setException(new TimeoutException("Timed out after " + timeout + " " + unit.toString().toLowerCase()));
+                }
+            }
+
+        }, timeout, unit);
+        Futures.addCallback(future, new FutureCallback<V>() {
+
+            @Override
+            public void onSuccess(V value) {
+                timer.cancel(false);
+                if (done.compareAndSet(false, true)) {
+                    result.set(value);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                timer.cancel(false);
+                if (done.compareAndSet(false, true)) {
+                    result.setException(t);
+                }
+            }
+
+        });
+        return result;
+    }
+
+    /**
+     * Succeeds with every result, in order, once all of {@code futures}
+     * succeed.  Fails as soon as any of them fails.
+     */
+    @SafeVarargs
+    public static <V> ListenableFuture<List<V>> allOf(ListenableFuture<? extends V>... futures) {
+        return Futures.allAsList(Arrays.asList(futures));
+    }
+
+    public static <V> ListenableFuture<List<V>> allOf(Iterable<? extends ListenableFuture<? extends V>> futures) {
+        return Futures.allAsList(futures);
+    }
+
+    @SafeVarargs
+    public static <V> ListenableFuture<V> firstOf(ListenableFuture<? extends V>... futures) {
+        return firstOf(Arrays.asList(futures));
+    }
+
+    /**
+     * Succeeds with the first successful result and cancels the rest.  Fails
+     * only if all of {@code futures} fail, with the last failure.
+     */
+    public static <V> ListenableFuture<V> firstOf(Iterable<? extends ListenableFuture<? extends V>> futures) {
+        final List<ListenableFuture<? extends V>> all = ImmutableList.copyOf(futures);
+        final SettableFuture<V> result = SettableFuture.create();
+        if (all.isEmpty()) {
+            result.setException(new IllegalArgumentException("No futures to wait for"));
+            return result;
+        }
+        final AtomicInteger remaining = new AtomicInteger(all.size());
+        for (ListenableFuture<? extends V> future : all) {
+            Futures.addCallback(future, new FutureCallback<V>() {
+
+                @Override
+                public void onSuccess(V value) {
+                    if (result.set(value)) {
+                        for (ListenableFuture<? extends V> other : all) {
+                            other.cancel(true);
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    if (remaining.decrementAndGet() == 0) {
+                        result.setException(t);
+                    }
+                }
+
+            });
+        }
+        return result;
+    }
+
+}
@@ -41,6 +41,11 @@ import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -70,6 +75,7 @@ public class MongoClientFactory {
     private static final String WRITE_CONCERN_KEY = "writeConcern";
     private static final String DB_DECODER_FACTORY_KEY = "dbDecoderFactory";
     private static final Set<String> DB_DECODER_FACTORY_VALUES = Sets.newHashSet("lazy", "lazy-writeable", "default");
+    private static final Set<String> OVERRIDE_KEYS = Sets.newHashSet(READ_PREFERENCE_KEY, WRITE_CONCERN_KEY);
 
     @JsonProperty
     @JsonDeserialize(converter = ServerAddressConverter.class)
@@ -86,6 +92,37 @@ public class MongoClientFactory {
 
     @JsonProperty
     private Map<String, String> options = Maps.newHashMap();
+
+    /**
+     * {@code writeConcern} and {@code readPreference} overrides keyed by
+     * database, or by namespace (i.e. {@code database.collection}).
+     */
+    @JsonProperty
+    private Map<String, Map<String, String>> overrides = Maps.newHashMap();
+
+    /**
+     * Field compression settings keyed by namespace, i.e. {@code database.collection}.
+     */
+    @JsonProperty
+    @Valid
+    private Map<String, FieldCompressionRepresentation> compression = Maps.newHashMap();
+
+    @JsonProperty
+    @Valid
+    @Getter
+    private List<IndexRepresentation> indexes = Lists.newArrayList();
+
+    @JsonProperty
+    @Min(1)
+    private int indexBuildThreads = 4;
+
+    /**
+     * Queries a call site must make without reading a new field before
+     * {@link ProjectionLearner} starts projecting.
+     */
+    @JsonProperty
+    @Min(1)
+    private int projectionLearningQueries = 100;
     
     public MongoClientFactory() {
         
@@ -104,28 +141,110 @@ public class MongoClientFactory {
         } else {
             client = new MongoClient(server, credentials, optionsBuilder.build());
         }
+
+        // The client caches DB and DBCollection instances, so these settings stick
+        for (Map.Entry<String, Map<String, String>> entry : overrides.entrySet()) {
+            String writeConcern = entry.getValue().get(WRITE_CONCERN_KEY);
+            String readPreference = entry.getValue().get(READ_PREFERENCE_KEY);
+            if (isCollectionNamespace(entry.getKey())) {
+                DBCollection collection = getCollection(client, entry.getKey());
+                if (writeConcern != null) {
+                    collection.setWriteConcern(WriteConcern.valueOf(writeConcern));
+                }
+                if (readPreference != null) {
+                    collection.setReadPreference(ReadPreference.valueOf(readPreference));
+                }
+            } else {
+                DB db = client.getDB(entry.getKey());
+                if (writeConcern != null) {
+                    db.setWriteConcern(WriteConcern.valueOf(writeConcern));
+                }
+                if (readPreference != null) {
+                    db.setReadPreference(ReadPreference.valueOf(readPreference));
+                }
+            }
+        }
+        for (Map.Entry<String, FieldCompressionRepresentation> entry : compression.entrySet()) {
+            FieldCompressionCodec codec = new FieldCompressionCodec(entry.getValue(), environment.metrics(), entry.getKey());
+            DBCollection collection = getCollection(client, entry.getKey());
+            collection.setDBEncoderFactory(codec.getEncoderFactory());
+            collection.setDBDecoderFactory(codec.getDecoderFactory());
+        }
         
         return client;
     }
 
+    /**
+     * Builds a manager for the declared {@code indexes}.  Either register it
+     * with the lifecycle or hand it to a {@link MongoClientManager}.  Its
+     * metrics are named after {@code name}, so give each client its own.
+     */
+    public MongoIndexManager buildIndexManager(MongoClient client, Environment environment, String name) {
+        return new MongoIndexManager(client, indexes, indexBuildThreads, environment.metrics(), name);
+    }
+
+    public ProjectionLearner buildProjectionLearner(Environment environment) {
+        return new ProjectionLearner(projectionLearningQueries, environment.metrics());
+    }
+
+    /**
+     * Builds an executor for asynchronous calls with one thread per pooled
+     * connection, and a queue as deep as the driver's own wait queue.  Both it
+     * and its timeout scheduler are managed by {@code environment}.
+     */
+    public MongoAsyncExecutor buildAsyncExecutor(MongoClient client, Environment environment) {
+        MongoClientOptions clientOptions = client.getMongoClientOptions();
+        int threads = clientOptions.getConnectionsPerHost();
+        ExecutorService executor = environment.lifecycle().executorService("mongo-async-%d")
+                .minThreads(threads)
+                .maxThreads(threads)
+                .workQueue(new ArrayBlockingQueue<Runnable>(threads * clientOptions.getThreadsAllowedToBlockForConnectionMultiplier()))
+                .build();
+        ScheduledExecutorService scheduler = environment.lifecycle().scheduledExecutorService("mongo-async-timeout-%d")
+                .threads(1)
+                .build();
+        return new MongoAsyncExecutor(executor, scheduler);
+    }
+
     @JsonIgnore
     @ValidationMethod(message = ".options.readPreference must be one of \"primary\", \"primaryPreferred\", \"secondary\", \"secondaryPreferred\", or \"nearest\"")
     public boolean isReadPreferenceValid() {
-        if (options.get(READ_PREFERENCE_KEY) == null) {
+        return isReadPreferenceValid(options.get(READ_PREFERENCE_KEY));
+    }
+
+    @JsonIgnore
+    @ValidationMethod(message = ".options.writeConcern must be one of the static WriteConcerns on com.mongodb.WriteConcern by name.  Case doesn't matter.")
+    public boolean isWriteConcernValid() {
+        return isWriteConcernValid(options.get(WRITE_CONCERN_KEY));
+    }
+
+    @JsonIgnore
+    @ValidationMethod(message = ".overrides may only set \"writeConcern\" and \"readPreference\", with the same values as .options")
+    public boolean isOverridesValid() {
+        for (Map<String, String> override : overrides.values()) {
+            if (!OVERRIDE_KEYS.containsAll(override.keySet())
+                    || !isWriteConcernValid(override.get(WRITE_CONCERN_KEY))
+                    || !isReadPreferenceValid(override.get(READ_PREFERENCE_KEY))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isReadPreferenceValid(String readPreference) {
+        if (readPreference == null) {
             return true;
         }
         try {
-            ReadPreference.valueOf(options.get(READ_PREFERENCE_KEY));
+            ReadPreference.valueOf(readPreference);
         } catch (IllegalArgumentException | ClassCastException e) {
             return false;
         }
         return true;
     }
 
-    @JsonIgnore
-    @ValidationMethod(message = ".options.writeConcern must be one of the static WriteConcerns on com.mongodb.WriteConcern by name.  Case doesn't matter.")
-    public boolean isWriteConcernValid() {
-        return options.get(WRITE_CONCERN_KEY) == null || WriteConcern.valueOf(options.get(WRITE_CONCERN_KEY)) != null;
+    private static boolean isWriteConcernValid(String writeConcern) {
+        return writeConcern == null || WriteConcern.valueOf(writeConcern) != null;
     }
 
     @JsonIgnore
@@ -134,6 +253,34 @@ public class MongoClientFactory {
         return options.get(DB_DECODER_FACTORY_KEY) == null || DB_DECODER_FACTORY_VALUES.contains(options.get(DB_DECODER_FACTORY_KEY));
     }
 
+    @JsonIgnore
+    @ValidationMethod(message = ".compression keys must be namespaces of the form \"database.collection\"")
+    public boolean isCompressionValid() {
+        for (String namespace : compression.keySet()) {
+            if (!isCollectionNamespace(namespace)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @JsonIgnore
+    @ValidationMethod(message = ".compression can't be combined with a \"lazy\" or \"lazy-writeable\" .options.dbDecoderFactory")
+    public boolean isCompressionDecoderValid() {
+        String decoder = options.get(DB_DECODER_FACTORY_KEY);
+        return compression.isEmpty() || decoder == null || "default".equals(decoder);
+    }
+
+    private static boolean isCollectionNamespace(String namespace) {
+        int dot = namespace.indexOf('.');
+        return dot > 0 && dot < namespace.length() - 1;
+    }
+
+    static DBCollection getCollection(MongoClient client, String namespace) {
+        int dot = namespace.indexOf('.');
+        return client.getDB(namespace.substring(0, dot)).getCollection(namespace.substring(dot + 1));
+    }
+
     private static void setOption(MongoClientOptions.Builder options, String propertyName, String propertyValue) {
         switch (propertyName) {
             case DB_DECODER_FACTORY_KEY:
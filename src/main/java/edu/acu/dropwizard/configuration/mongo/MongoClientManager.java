@@ -39,19 +39,34 @@ public class MongoClientManager implements Managed {
     
     private final MongoClient client;
     private final String db;
+    private final MongoIndexManager indexManager;
 
     public MongoClientManager(MongoClient client, String db) {
+        this(client, db, null);
+    }
+
+    /**
+     * @param indexManager started once the connection is confirmed; its index builds don't hold up startup
+     */
+    public MongoClientManager(MongoClient client, String db, MongoIndexManager indexManager) {
         this.client = client;
         this.db = db;
+        this.indexManager = indexManager;
     }
 
     @Override
     public void start() throws Exception {
         client.getDB(db).getStats();  // Is there a better way to confirm a connection to the database?  This should throw an error if it can't connect.
+        if (indexManager != null) {
+            indexManager.start();
+        }
     }
 
     @Override
     public void stop() throws Exception {
+        if (indexManager != null) {
+            indexManager.stop();
+        }
         client.close();
     }
     
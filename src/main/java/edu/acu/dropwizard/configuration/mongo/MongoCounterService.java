@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DB;
+import com.mongodb.MongoClientException;
+import com.mongodb.MongoException;
+import io.dropwizard.lifecycle.Managed;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects {@code $inc} deltas in memory and periodically writes them out as
+ * one unordered bulk upsert per collection.  Register it with the lifecycle
+ * after the {@link MongoClientManager} so that it is stopped (and flushed)
+ * before the client is closed.
+ * <p>
+ * {@code $inc} is not idempotent, so a batch is only retried when it clearly
+ * never took effect: the driver could not get a connection, or the server
+ * rejected an update with a transient error such as a step-down.  Rejected
+ * updates that will never succeed (e.g. {@code $inc} on a non-numeric field)
+ * are logged and dropped.  When the connection fails mid-write the server may
+ * already have applied the batch, so by default it is dropped and the counts
+ * may come up short; {@link #setRetryUncertainWrites(boolean)} retries it
+ * instead, at the risk of counting it twice.
+ */
+public class MongoCounterService implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoCounterService.class);
+
+    // Write error codes for updates the server did not apply but may accept later
+    private static final Set<Integer> TRANSIENT_ERROR_CODES = ImmutableSet.of(
+            11000, // Duplicate key, two upserts of the same new _id raced
+            50, // ExceededTimeLimit
+            91, // ShutdownInProgress
+            189, // PrimarySteppedDown
+            10107, // NotMaster
+            11600, // InterruptedAtShutdown
+            11602, // InterruptedDueToReplStateChange
+            13435 // NotMasterNoSlaveOk
+    );
+
+    @Value
+    private static class CounterKey {
+
+        String collection;
+        Object id;
+        String field;
+
+    }
+
+    private final DB db;
+    private final long flushInterval;
+    private final TimeUnit flushUnit;
+    private final AtomicLongMap<CounterKey> counters = AtomicLongMap.create();
+    @Getter
+    @Setter
+    private volatile boolean retryUncertainWrites;
+    private ScheduledExecutorService executor;
+
+    public MongoCounterService(@NonNull DB db, long flushInterval, @NonNull TimeUnit flushUnit) {
+        this.db = db;
+        this.flushInterval = flushInterval;
+        this.flushUnit = flushUnit;
+    }
+
+    public void increment(String collection, Object id, String field) {
+        increment(collection, id, field, 1);
+    }
+
+    public void increment(@NonNull String collection, @NonNull Object id, @NonNull String field, long delta) {
+        if (delta != 0) {
+            counters.addAndGet(new CounterKey(collection, id, field), delta);
+        }
+    }
+
+    /**
+     * Writes out every pending delta.  Deltas that certainly were not applied
+     * and may succeed later are put back so they are retried on the next
+     * flush.
+     */
+    public synchronized void flush() {
+        // collection -> _id -> {field: delta}
+        Map<String, Map<Object, BasicDBObject>> pending = Maps.newHashMap();
+        for (CounterKey key : counters.asMap().keySet()) {
+            long delta = counters.remove(key);  // Atomic, so concurrent increments land in the next flush
+            if (delta == 0) {
+                continue;
+            }
+            Map<Object, BasicDBObject> documents = pending.get(key.getCollection());
+            if (documents == null) {
+                documents = Maps.newLinkedHashMap();
+                pending.put(key.getCollection(), documents);
+            }
+            BasicDBObject inc = documents.get(key.getId());
+            if (inc == null) {
+                inc = new BasicDBObject();
+                documents.put(key.getId(), inc);
+            }
+            inc.put(key.getField(), delta);
+        }
+
+        for (Map.Entry<String, Map<Object, BasicDBObject>> entry : pending.entrySet()) {
+            String collection = entry.getKey();
+            List<Map.Entry<Object, BasicDBObject>> requests = Lists.newArrayList(entry.getValue().entrySet());
+            BulkWriteOperation bulk = db.getCollection(collection).initializeUnorderedBulkOperation();
+            for (Map.Entry<Object, BasicDBObject> request : requests) {
+                bulk.find(new BasicDBObject("_id", request.getKey())).upsert().updateOne(new BasicDBObject("$inc", request.getValue()));
+            }
+            try {
+                bulk.execute();
+            } catch (BulkWriteException e) {
+                int retried = 0;
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    Map.Entry<Object, BasicDBObject> request = requests.get(error.getIndex());
+                    if (TRANSIENT_ERROR_CODES.contains(error.getCode())) {
+                        requeue(collection, request);
+                        retried++;
+                    } else {
+                        LOGGER.error("Dropping counter update {} to {}: {}", request, collection, error.getMessage());
+                    }
+                }
+                if (retried > 0) {
+                    LOGGER.warn("{} of {} counter updates to {} failed, retrying on next flush", retried, requests.size(), collection);
+                }
+                if (e.getWriteConcernError() != null) {
+                    // The updates were applied, they just aren't as durable as asked
+                    LOGGER.warn("Counter updates to {} did not satisfy the write concern: {}", collection, e.getWriteConcernError().getMessage());
+                }
+            } catch (MongoClientException e) {
+                // No connection was available, so nothing reached the server
+                LOGGER.warn("Counter updates to {} failed, retrying on next flush", collection, e);
+                for (Map.Entry<Object, BasicDBObject> request : requests) {
+                    requeue(collection, request);
+                }
+            } catch (MongoException e) {
+                if (retryUncertainWrites) {
+                    LOGGER.warn("Counter updates to {} failed, retrying on next flush; some may be counted twice", collection, e);
+                    for (Map.Entry<Object, BasicDBObject> request : requests) {
+                        requeue(collection, request);
+                    }
+                } else {
+                    LOGGER.error("Counter updates to {} failed and may not have been applied, dropping {}", collection, requests, e);
+                }
+            }
+        }
+    }
+
+    private void requeue(String collection, Map.Entry<Object, BasicDBObject> request) {
+        for (Map.Entry<String, Object> field : request.getValue().entrySet()) {
+            increment(collection, request.getKey(), field.getKey(), (Long) field.getValue());
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("mongo-counter-flush-%d")
+                .setDaemon(true)
+                .build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    // Never let an exception cancel the schedule
+                    LOGGER.error("Unable to flush counters", e);
+                }
+            }
+
+        }, flushInterval, flushInterval, flushUnit);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(flushInterval, flushUnit);
+        }
+        flush();
+    }
+
+}
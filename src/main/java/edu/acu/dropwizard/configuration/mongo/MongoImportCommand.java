@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoClient;
+import io.dropwizard.Configuration;
+import io.dropwizard.setup.Bootstrap;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+/**
+ * Imports an NDJSON or BSON dump file into a collection using a
+ * {@link BulkImporter}, printing progress as it goes.
+ */
+public class MongoImportCommand<T extends Configuration> extends AbstractMongoCommand<T> {
+
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+
+    public MongoImportCommand(MongoConfiguration<T> strategy, Class<T> configurationClass) {
+        super("mongo-import", "Imports an NDJSON or BSON file into the configured MongoDB", strategy, configurationClass);
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument("--database").required(true).help("database to import into");
+        subparser.addArgument("--collection").required(true).help("collection to import into");
+        subparser.addArgument("--file").required(true).help("NDJSON or BSON file to import");
+        subparser.addArgument("--format").choices("ndjson", "bson").help("file format, by default .bson files are BSON and anything else is NDJSON");
+        subparser.addArgument("--threads").type(Integer.class).setDefault(Runtime.getRuntime().availableProcessors()).help("number of parsing threads");
+        subparser.addArgument("--batch-size").dest("batchSize").type(Integer.class).setDefault(1000).help("documents per bulk insert");
+        subparser.addArgument("--in-flight").dest("inFlight").type(Integer.class).setDefault(4).help("bulk inserts to have running at once");
+    }
+
+    @Override
+    protected void run(Bootstrap<T> bootstrap, Namespace namespace, T configuration) throws Exception {
+        final File file = new File(namespace.getString("file"));
+        BulkImporter.Format format = namespace.getString("format") == null
+                ? BulkImporter.Format.forFile(file)
+                : BulkImporter.Format.valueOf(namespace.getString("format").toUpperCase());
+        final PrintStream out = System.out;
+
+        MongoClient client = buildClient(bootstrap, configuration);
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("mongo-import-progress-%d")
+                .setDaemon(true)
+                .build());
+        final BulkImporter importer = new BulkImporter(
+                client.getDB(namespace.getString("database")).getCollection(namespace.getString("collection")),
+                namespace.getInt("threads"),
+                namespace.getInt("batchSize"),
+                namespace.getInt("inFlight"));
+        final long start = System.nanoTime();
+        try {
+            out.printf("Importing %s as %s%n", file, format.toString().toLowerCase());
+            progress.scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    printProgress(out, importer, file.length(), start);
+                }
+
+            }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            importer.importFile(file, format);
+        } finally {
+            progress.shutdownNow();
+            importer.close();
+            client.close();
+        }
+        printProgress(out, importer, file.length(), start);
+    }
+
+    private static void printProgress(PrintStream out, BulkImporter importer, long size, long start) {
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long documents = importer.getDocumentsWritten().get();
+        long bytes = importer.getBytesRead().get();
+        out.printf("%d documents (%d errors), %.1f MB read (%.0f%%) in %.0f s: %.0f documents/s, %.1f MB/s%n",
+                documents,
+                importer.getErrors().get(),
+                bytes / 1048576.0,
+                size == 0 ? 100.0 : 100.0 * bytes / size,
+                elapsed,
+                documents / elapsed,
+                bytes / 1048576.0 / elapsed);
+    }
+
+}
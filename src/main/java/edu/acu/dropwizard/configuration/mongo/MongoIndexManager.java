@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import io.dropwizard.lifecycle.Managed;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the indexes declared in the configuration that don't exist yet.
+ * Builds run in the background on their own threads, so {@link #start()}
+ * returns immediately.  While builds are running their progress is logged, and
+ * once an hour declared indexes that have never been used are reported (this
+ * needs {@code $indexStats}, i.e. MongoDB 3.2 or later).
+ */
+public class MongoIndexManager implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoIndexManager.class);
+    private static final long PROGRESS_INTERVAL_SECONDS = 10;
+    private static final long USAGE_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final int NAMESPACE_NOT_FOUND = 26;
+    private static final int COMMAND_NOT_FOUND = 59;
+
+    private final MongoClient client;
+    private final List<IndexRepresentation> indexes;
+    private final int threads;
+    private final CountDownLatch remaining;
+    private final AtomicInteger existing = new AtomicInteger();
+    private final AtomicInteger building = new AtomicInteger();
+    private final AtomicInteger built = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger unused = new AtomicInteger();
+    private ExecutorService executor;
+    private ScheduledExecutorService monitor;
+
+    /**
+     * @param name distinguishes this manager's metrics from those of other
+     * clients sharing {@code metrics}
+     */
+    public MongoIndexManager(@NonNull MongoClient client, @NonNull List<IndexRepresentation> indexes, int threads, @NonNull MetricRegistry metrics, @NonNull String name) {
+        this.client = client;
+        this.indexes = ImmutableList.copyOf(indexes);
+        this.threads = Math.max(1, Math.min(threads, indexes.size()));
+        this.remaining = new CountDownLatch(indexes.size());
+        register(metrics, name, "existing", existing);
+        register(metrics, name, "building", building);
+        register(metrics, name, "built", built);
+        register(metrics, name, "failed", failed);
+        register(metrics, name, "unused", unused);
+    }
+
+    private static void register(MetricRegistry metrics, String name, String gauge, final AtomicInteger value) {
+        String metricName = MetricRegistry.name(MongoIndexManager.class, name, gauge);
+        // A manager rebuilt under the same name takes over the old one's gauges
+        metrics.remove(metricName);
+        metrics.register(metricName, new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return value.get();
+            }
+
+        });
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("mongo-index-build-%d")
+                .setDaemon(true)
+                .build());
+        for (final IndexRepresentation index : indexes) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        ensureIndex(index);
+                    } finally {
+                        remaining.countDown();
+                    }
+                }
+
+            });
+        }
+        executor.shutdown();
+
+        monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("mongo-index-monitor-%d")
+                .setDaemon(true)
+                .build());
+        monitor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                if (remaining.getCount() > 0) {
+                    logProgress();
+                }
+            }
+
+        }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        monitor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                checkUsage();
+            }
+
+        }, USAGE_INTERVAL_SECONDS, USAGE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // Builds already sent to the server keep going there
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (monitor != null) {
+            monitor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for every declared index to either exist or fail to build.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return remaining.await(timeout, unit);
+    }
+
+    void ensureIndex(IndexRepresentation index) {
+        DBCollection collection = MongoClientFactory.getCollection(client, index.getNamespace());
+        try {
+            if (findExisting(collection, index) != null) {
+                existing.incrementAndGet();
+                return;
+            }
+            building.incrementAndGet();
+            try {
+                LOGGER.info("Building index {} on {}", index.getKeys(), index.getNamespace());
+                collection.createIndex(new BasicDBObject(index.getKeys()), getOptions(index));
+                built.incrementAndGet();
+                LOGGER.info("Finished building index {} on {}", index.getKeys(), index.getNamespace());
+            } finally {
+                building.decrementAndGet();
+            }
+        } catch (MongoException e) {
+            failed.incrementAndGet();
+            LOGGER.error("Unable to build index {} on {}", index.getKeys(), index.getNamespace(), e);
+        }
+    }
+
+    private static DBObject getOptions(IndexRepresentation index) {
+        BasicDBObject options = new BasicDBObject("background", true);
+        if (index.getName() != null) {
+            options.put("name", index.getName());
+        }
+        if (index.isUnique()) {
+            options.put("unique", true);
+        }
+        if (index.isSparse()) {
+            options.put("sparse", true);
+        }
+        if (index.getExpireAfterSeconds() != null) {
+            options.put("expireAfterSeconds", index.getExpireAfterSeconds());
+        }
+        return options;
+    }
+
+    private static DBObject findExisting(DBCollection collection, IndexRepresentation index) {
+        return findExisting(listIndexes(collection), index);
+    }
+
+    /**
+     * Lists indexes with the {@code listIndexes} command.  The driver's
+     * {@link DBCollection#getIndexInfo()} reads {@code system.indexes}, which
+     * WiredTiger doesn't have, so it is only used on servers older than 3.0.
+     */
+    static List<DBObject> listIndexes(DBCollection collection) {
+        CommandResult result = collection.getDB().command(new BasicDBObject("listIndexes", collection.getName()));
+        if (result.ok()) {
+            // A collection has at most 64 indexes, so they all fit in the first batch
+            List<DBObject> indexes = Lists.newArrayList();
+            for (Object index : (List<?>) ((DBObject) result.get("cursor")).get("firstBatch")) {
+                indexes.add((DBObject) index);
+            }
+            return indexes;
+        }
+        int code = result.getInt("code", 0);
+        if (code == NAMESPACE_NOT_FOUND) {
+            return Collections.emptyList();
+        }
+        String message = result.getErrorMessage();
+        if (code == COMMAND_NOT_FOUND || (message != null && message.startsWith("no such cmd"))) {
+            return collection.getIndexInfo();
+        }
+        result.throwOnError();
+        return Collections.emptyList();
+    }
+
+    private static DBObject findExisting(List<DBObject> infos, IndexRepresentation index) {
+        for (DBObject info : infos) {
+            if (sameKeys((DBObject) info.get("key"), index.getKeys())) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares key patterns in order.  Numbers are compared by value since the
+     * server may hand back 1.0 where we declared 1.
+     */
+    static boolean sameKeys(DBObject actual, Map<String, Object> declared) {
+        if (actual == null || actual.keySet().size() != declared.size()) {
+            return false;
+        }
+        Iterator<String> names = actual.keySet().iterator();
+        for (Map.Entry<String, Object> entry : declared.entrySet()) {
+            String name = names.next();
+            Object value = actual.get(name);
+            if (!name.equals(entry.getKey())) {
+                return false;
+            }
+            if (value instanceof Number && entry.getValue() instanceof Number) {
+                if (((Number) value).doubleValue() != ((Number) entry.getValue()).doubleValue()) {
+                    return false;
+                }
+            } else if (value == null || !value.equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void logProgress() {
+        try {
+            CommandResult inprog = client.getDB("admin").command(new BasicDBObject("currentOp", 1));
+            inprog.throwOnError();
+            if (!(inprog.get("inprog") instanceof List)) {
+                return;
+            }
+            for (Object op : (List<?>) inprog.get("inprog")) {
+                Object msg = ((DBObject) op).get("msg");
+                if (msg != null && msg.toString().contains("Index Build")) {
+                    LOGGER.info("{}: {}", ((DBObject) op).get("ns"), msg);
+                }
+            }
+        } catch (MongoException e) {
+            LOGGER.warn("Unable to read index build progress", e);
+        }
+    }
+
+    void checkUsage() {
+        Multimap<String, IndexRepresentation> byNamespace = LinkedHashMultimap.create();
+        for (IndexRepresentation index : indexes) {
+            byNamespace.put(index.getNamespace(), index);
+        }
+        int count = 0;
+        for (Map.Entry<String, Collection<IndexRepresentation>> entry : byNamespace.asMap().entrySet()) {
+            DBCollection collection = MongoClientFactory.getCollection(client, entry.getKey());
+            try {
+                List<DBObject> infos = listIndexes(collection);
+                Map<Object, Long> ops = getIndexOps(collection);
+                for (IndexRepresentation index : entry.getValue()) {
+                    DBObject info = findExisting(infos, index);
+                    if (info == null) {
+                        continue;
+                    }
+                    Long used = ops.get(info.get("name"));
+                    if (used == null || used == 0) {
+                        count++;
+                        LOGGER.warn("Index {} on {} has not been used", info.get("name"), entry.getKey());
+                    }
+                }
+            } catch (MongoException e) {
+                LOGGER.warn("Unable to read index usage for {}", entry.getKey(), e);
+            }
+        }
+        unused.set(count);
+    }
+
+    /**
+     * Sums {@code $indexStats} accesses by index name.  There is one entry per
+     * host, so a replica set reports each index more than once.
+     */
+    private static Map<Object, Long> getIndexOps(DBCollection collection) {
+        Map<Object, Long> ops = Maps.newHashMap();
+        Cursor stats = collection.aggregate(
+                ImmutableList.<DBObject>of(new BasicDBObject("$indexStats", new BasicDBObject())),
+                AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build());
+        try {
+            while (stats.hasNext()) {
+                DBObject stat = stats.next();
+                long accesses = ((Number) ((DBObject) stat.get("accesses")).get("ops")).longValue();
+                Long previous = ops.get(stat.get("name"));
+                ops.put(stat.get("name"), previous == null ? accesses : previous + accesses);
+            }
+        } finally {
+            stats.close();
+        }
+        return ops;
+    }
+
+}
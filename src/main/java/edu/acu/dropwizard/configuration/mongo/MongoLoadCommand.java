@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import io.dropwizard.Configuration;
+import io.dropwizard.setup.Bootstrap;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Runs a read/write mix against the MongoDB described by the application's
+ * configuration, so client options can be compared before they ship.  Reads
+ * are {@code findOne} by {@code _id} and writes are upserts over the same
+ * range of ids, which is seeded before the run starts.
+ * <p>
+ * When {@code --rate} is set every operation has an intended start time, and
+ * the response time histogram is measured from that time rather than from
+ * when the operation was actually sent.  That way a stalled server shows up in
+ * the percentiles instead of just slowing down the load (coordinated
+ * omission).
+ */
+public class MongoLoadCommand<T extends Configuration> extends AbstractMongoCommand<T> {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    public MongoLoadCommand(MongoConfiguration<T> strategy, Class<T> configurationClass) {
+        super("mongo-load", "Runs a read/write load against the configured MongoDB and reports latency", strategy, configurationClass);
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument("--database").setDefault("loadtest").help("database to use");
+        subparser.addArgument("--collection").setDefault("load").help("collection to use, it is seeded and overwritten");
+        subparser.addArgument("--threads").type(Integer.class).setDefault(8).help("number of client threads");
+        subparser.addArgument("--rate").type(Integer.class).setDefault(0).help("target operations per second across all threads, 0 for as fast as possible");
+        subparser.addArgument("--duration").type(Integer.class).setDefault(60).help("length of the run in seconds");
+        subparser.addArgument("--reads").type(Double.class).setDefault(0.9).help("fraction of operations that are reads");
+        subparser.addArgument("--records").type(Integer.class).setDefault(10000).help("number of documents to read and write");
+        subparser.addArgument("--size").type(Integer.class).setDefault(1024).help("payload size of each document in bytes");
+    }
+
+    @Override
+    protected void run(Bootstrap<T> bootstrap, Namespace namespace, T configuration) throws Exception {
+        MongoClient client = buildClient(bootstrap, configuration);
+        try {
+            DBCollection collection = client.getDB(namespace.getString("database")).getCollection(namespace.getString("collection"));
+            int threads = namespace.getInt("threads");
+            int records = namespace.getInt("records");
+            int size = namespace.getInt("size");
+            PrintStream out = System.out;
+
+            out.printf("Seeding %d documents into %s%n", records, collection.getFullName());
+            seed(collection, records, size);
+
+            int rate = namespace.getInt("rate");
+            long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+            long durationNanos = TimeUnit.SECONDS.toNanos(namespace.getInt("duration"));
+            out.printf("Running %d threads for %d seconds%n", threads, namespace.getInt("duration"));
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                    .setNameFormat("mongo-load-%d")
+                    .setDaemon(true)
+                    .build());
+            List<Future<Worker>> futures = Lists.newArrayList();
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Worker(collection, start, start + durationNanos, intervalNanos,
+                        namespace.getDouble("reads"), records, size)));
+            }
+            Histogram service = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+            Histogram response = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+            long errors = 0;
+            for (Future<Worker> future : futures) {
+                Worker worker = future.get();
+                service.add(worker.service);
+                response.add(worker.response);
+                errors += worker.errors;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            executor.shutdown();
+
+            out.printf("%nOperations: %d (%d errors) in %.1f s, %.1f ops/s%n", service.getTotalCount(), errors, elapsed, service.getTotalCount() / elapsed);
+            printSummary(out, "Service time (ms)", service);
+            if (rate > 0) {
+                printSummary(out, "Response time, corrected for coordinated omission (ms)", response);
+                out.println();
+                response.outputPercentileDistribution(out, 1000.0);
+            } else {
+                // Without a rate there are no intended start times, so response time is just service time
+                out.println();
+                service.outputPercentileDistribution(out, 1000.0);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    private static void seed(DBCollection collection, int records, int size) {
+        String payload = Strings.repeat("x", size);
+        for (int from = 0; from < records; from += SEED_BATCH_SIZE) {
+            BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+            for (int id = from; id < Math.min(records, from + SEED_BATCH_SIZE); id++) {
+                bulk.find(new BasicDBObject("_id", id)).upsert().replaceOne(new BasicDBObject("_id", id).append("payload", payload));
+            }
+            bulk.execute();
+        }
+    }
+
+    private static void printSummary(PrintStream out, String title, Histogram histogram) {
+        out.printf("%n%s%n", title);
+        out.printf("  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    static class Worker implements Callable<Worker> {
+
+        private final DBCollection collection;
+        private final long start;
+        private final long end;
+        private final long intervalNanos;
+        private final double reads;
+        private final int records;
+        private final String payload;
+        final Histogram service = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram response = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        long errors = 0;
+
+        Worker(DBCollection collection, long start, long end, long intervalNanos, double reads, int records, int size) {
+            this.collection = collection;
+            this.start = start;
+            this.end = end;
+            this.intervalNanos = intervalNanos;
+            this.reads = reads;
+            this.records = records;
+            this.payload = Strings.repeat("y", size);
+        }
+
+        @Override
+        public Worker call() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            // Spread the threads out over the first interval
+            long intended = start + (intervalNanos > 0 ? random.nextLong(intervalNanos) : 0);
+            while (intended < end) {
+                long now = System.nanoTime();
+                if (intervalNanos > 0) {
+                    while (now < intended) {
+                        LockSupport.parkNanos(intended - now);
+                        now = System.nanoTime();
+                    }
+                } else {
+                    intended = now;
+                }
+
+                BasicDBObject id = new BasicDBObject("_id", random.nextInt(records));
+                try {
+                    if (random.nextDouble() < reads) {
+                        collection.findOne(id);
+                    } else {
+                        collection.update(id, new BasicDBObject("$set", new BasicDBObject("payload", payload).append("updated", new Date())), true, false);
+                    }
+                } catch (MongoException e) {
+                    errors++;
+                }
+                long done = System.nanoTime();
+
+                service.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (done - now) / 1000));
+                response.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (done - intended) / 1000));
+                intended += intervalNanos;
+            }
+            return this;
+        }
+
+    }
+
+}
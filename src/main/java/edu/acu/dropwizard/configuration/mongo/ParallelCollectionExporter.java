@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.Lists;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.ParallelScanOptions;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import lombok.NonNull;
+
+/**
+ * Reads a whole collection through {@code parallelCollectionScan}, one task
+ * per cursor on a {@link ForkJoinPool}, and streams the documents to an
+ * {@link ExportSink} in batches.  At most {@code maxInFlightBatches} batches
+ * are held in memory; when the sink falls behind the readers wait.  Readers
+ * block through {@link ForkJoinPool#managedBlock}, so they run side by side
+ * even on a small pool.  If any reader fails the others stop and the export
+ * fails without waiting for the rest of the collection.
+ */
+public class ParallelCollectionExporter {
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final long QUEUE_TIMEOUT_MILLIS = 100;
+
+    private final ForkJoinPool pool;
+    private final int maxInFlightBatches;
+
+    public ParallelCollectionExporter(@NonNull ForkJoinPool pool, int maxInFlightBatches) {
+        if (maxInFlightBatches < 1) {
+            throw new IllegalArgumentException("maxInFlightBatches must be at least 1");
+        }
+        this.pool = pool;
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    /**
+     * Exports every document in {@code collection}, returning how many were
+     * written.  The sink is not closed.
+     */
+    public long export(DBCollection collection, ParallelScanOptions options, ExportSink sink) throws IOException, InterruptedException {
+        int batchSize = options.getBatchSize() > 0 ? options.getBatchSize() : DEFAULT_BATCH_SIZE;
+        BlockingQueue<List<DBObject>> queue = new ArrayBlockingQueue<>(maxInFlightBatches);
+        Export export = new Export(queue);
+
+        List<Cursor> cursors = collection.parallelScan(options);
+        List<ForkJoinTask<?>> readers = Lists.newArrayList();
+        for (Cursor cursor : cursors) {
+            readers.add(pool.submit(new Reader(cursor, batchSize, export)));
+        }
+
+        long count = 0;
+        boolean complete = false;
+        try {
+            while (!export.aborted) {
+                List<DBObject> batch = queue.poll(QUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    sink.write(batch);
+                    count += batch.size();
+                } else if (allDone(readers) && queue.isEmpty()) {
+                    // Readers are done, so everything they queued is visible by now
+                    break;
+                }
+            }
+            complete = !export.aborted;
+        } finally {
+            // Let the readers give up if the sink failed
+            if (!complete) {
+                export.aborted = true;
+            }
+        }
+
+        for (ForkJoinTask<?> reader : readers) {
+            try {
+                reader.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new MongoException("Unable to read collection " + collection.getFullName(), e.getCause());
+            }
+        }
+        return count;
+    }
+
+    private static boolean allDone(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            if (!task.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Export {
+
+        private final BlockingQueue<List<DBObject>> queue;
+        private volatile boolean aborted = false;
+
+        Export(BlockingQueue<List<DBObject>> queue) {
+            this.queue = queue;
+        }
+
+        /**
+         * Blocks until there's room, giving up if the export was abandoned.
+         */
+        boolean put(final List<DBObject> batch) throws InterruptedException {
+            while (!aborted) {
+                boolean queued = new Blocking<Boolean>() {
+
+                    @Override
+                    Boolean call() throws InterruptedException {
+                        return queue.offer(batch, QUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+
+                }.get();
+                if (queued) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Runs a blocking call so that the pool can add a thread to make up for
+     * the one it blocks.
+     */
+    private abstract static class Blocking<V> implements ForkJoinPool.ManagedBlocker {
+
+        private V result;
+        private boolean done = false;
+
+        abstract V call() throws InterruptedException;
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!done) {
+                result = call();
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+
+        V get() throws InterruptedException {
+            ForkJoinPool.managedBlock(this);
+            return result;
+        }
+
+    }
+
+    private static class Reader implements Runnable {
+
+        private final Cursor cursor;
+        private final int batchSize;
+        private final Export export;
+
+        Reader(Cursor cursor, int batchSize, Export export) {
+            this.cursor = cursor;
+            this.batchSize = batchSize;
+            this.export = export;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<DBObject> batch = Lists.newArrayListWithCapacity(batchSize);
+                while (!export.aborted && hasNext()) {
+                    batch.add(cursor.next());
+                    if (batch.size() == batchSize) {
+                        if (!export.put(batch)) {
+                            return;
+                        }
+                        batch = Lists.newArrayListWithCapacity(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    export.put(batch);
+                }
+            } catch (InterruptedException e) {
+                export.aborted = true;
+                Thread.currentThread().interrupt();
+                throw new MongoException("Interrupted while exporting", e);
+            } catch (RuntimeException e) {
+                export.aborted = true;
+                throw e;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Fetching the next batch from the server blocks.
+         */
+        private boolean hasNext() throws InterruptedException {
+            return new Blocking<Boolean>() {
+
+                @Override
+                Boolean call() {
+                    return cursor.hasNext();
+                }
+
+            }.get();
+        }
+
+    }
+
+}
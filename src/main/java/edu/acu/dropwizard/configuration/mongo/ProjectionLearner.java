@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCallback;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.LazyDBCallback;
+import com.mongodb.LazyDBDecoder;
+import com.mongodb.LazyDBObject;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learns which top level fields each query call site actually reads, and
+ * once that stops changing only fetches those fields.
+ * <p>
+ * Results are {@link LazyDBObject}s (so read-only, as with the {@code lazy}
+ * decoder) that record every field read.  After {@code learningQueries}
+ * queries from a call site without a new field being read, its queries get a
+ * projection.  Reading a field outside the projection sends the call site
+ * back to learning, and fetches the whole document along with every other
+ * document the cursor has returned so far with one {@code $in} query, so a
+ * cursor costs at most one extra round trip per batch.  Anything that looks
+ * at the whole document ({@code keySet()}, {@code toMap()}, ...) turns
+ * projections off for that call site for good.
+ * <p>
+ * Collections with their own decoder (e.g. field compression) are queried
+ * as-is, without learning, since tracking needs a decoder of its own.
+ */
+public class ProjectionLearner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProjectionLearner.class);
+
+    private final int learningQueries;
+    private final ConcurrentMap<String, Site> sites = Maps.newConcurrentMap();
+    private final Meter projectedQueries;
+    private final Meter fallbacks;
+    private final Meter bytesSaved;
+
+    public ProjectionLearner(int learningQueries, @NonNull MetricRegistry metrics) {
+        this.learningQueries = learningQueries;
+        this.projectedQueries = metrics.meter(MetricRegistry.name(ProjectionLearner.class, "projected-queries"));
+        this.fallbacks = metrics.meter(MetricRegistry.name(ProjectionLearner.class, "fallbacks"));
+        this.bytesSaved = metrics.meter(MetricRegistry.name(ProjectionLearner.class, "bytes-saved"));
+    }
+
+    /**
+     * Uses the calling method and line as the call site.  That costs a stack
+     * trace per query, so prefer naming the call site on hot paths.
+     */
+    public DBCursor find(DBCollection collection, DBObject query) {
+        StackTraceElement caller = new Throwable().getStackTrace()[1];
+        return find(caller.getClassName() + "." + caller.getMethodName() + ":" + caller.getLineNumber(), collection, query);
+    }
+
+    public DBCursor find(@NonNull String callSite, @NonNull DBCollection collection, DBObject query) {
+        if (collection.getDBDecoderFactory() != null) {
+            return collection.find(query);
+        }
+        String key = collection.getFullName() + " " + callSite;
+        Site site = sites.get(key);
+        if (site == null) {
+            sites.putIfAbsent(key, new Site(key));
+            site = sites.get(key);
+        }
+
+        Set<String> projection = site.nextProjection();
+        DBCursor cursor;
+        if (projection == null) {
+            cursor = collection.find(query);
+        } else {
+            projectedQueries.mark();
+            BasicDBObject keys = new BasicDBObject();
+            for (String field : projection) {
+                keys.put(field, 1);
+            }
+            cursor = collection.find(query, keys);
+        }
+        return cursor.setDecoderFactory(new TrackingDecoderFactory(site, projection, projection == null ? null : new Fallback(collection)));
+    }
+
+    public DBObject findOne(String callSite, DBCollection collection, DBObject query) {
+        DBCursor cursor = find(callSite, collection, query).limit(-1);
+        try {
+            return cursor.hasNext() ? cursor.next() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private class Site {
+
+        private final String name;
+        private final Set<String> fields = Sets.newConcurrentHashSet();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicLong fullBytes = new AtomicLong();
+        private final AtomicLong fullDocuments = new AtomicLong();
+        private volatile boolean everything = false;
+        private volatile Set<String> projection = null;
+
+        Site(String name) {
+            this.name = name;
+        }
+
+        Set<String> nextProjection() {
+            if (!everything && projection == null && unchanged.incrementAndGet() > learningQueries && !fields.isEmpty()) {
+                projection = ImmutableSet.<String>builder().addAll(fields).add("_id").build();
+                LOGGER.info("Projecting {} for {}", projection, name);
+            }
+            return everything ? null : projection;
+        }
+
+        void read(String field) {
+            if (!everything && fields.add(field)) {
+                unchanged.set(0);
+                projection = null;
+            }
+        }
+
+        void readEverything() {
+            if (!everything) {
+                everything = true;
+                projection = null;
+                LOGGER.info("Not projecting {}, whole documents are used", name);
+            }
+        }
+
+        void decoded(int size, boolean projected) {
+            if (!projected) {
+                fullBytes.addAndGet(size);
+                fullDocuments.incrementAndGet();
+            } else if (fullDocuments.get() > 0) {
+                bytesSaved.mark(Math.max(0, fullBytes.get() / fullDocuments.get() - size));
+            }
+        }
+
+    }
+
+    /**
+     * Fetches whole documents for one projected cursor.  The driver decodes a
+     * batch at a time, so by the first miss in a batch every {@code _id} in it
+     * is known and they can all be fetched together.
+     */
+    private class Fallback {
+
+        private final DBCollection collection;
+        private final List<Object> pending = Lists.newArrayList();
+        private final Map<Object, DBObject> fetched = Maps.newHashMap();
+
+        Fallback(DBCollection collection) {
+            this.collection = collection;
+        }
+
+        synchronized void decoded(Object id) {
+            pending.add(id);
+        }
+
+        /**
+         * @return the whole document, or null if it is gone
+         */
+        synchronized DBObject fetch(Object id) {
+            if (!fetched.containsKey(id)) {
+                fallbacks.mark();
+                if (!pending.contains(id)) {
+                    pending.add(id);
+                }
+                DBCursor cursor = collection.find(new BasicDBObject("_id", new BasicDBObject("$in", ImmutableList.copyOf(pending))));
+                try {
+                    for (DBObject document : cursor) {
+                        fetched.put(document.get("_id"), document);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                for (Object missing : pending) {
+                    if (!fetched.containsKey(missing)) {
+                        fetched.put(missing, null);
+                    }
+                }
+                pending.clear();
+            }
+            return fetched.remove(id);
+        }
+
+    }
+
+    private class TrackingDecoderFactory implements DBDecoderFactory {
+
+        private final Site site;
+        private final Set<String> projection;
+        private final Fallback fallback;
+
+        TrackingDecoderFactory(Site site, Set<String> projection, Fallback fallback) {
+            this.site = site;
+            this.projection = projection;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public DBDecoder create() {
+            return new LazyDBDecoder() {
+
+                @Override
+                public DBCallback getDBCallback(final DBCollection collection) {
+                    return new LazyDBCallback(collection) {
+
+                        @Override
+                        public Object createObject(byte[] data, int offset) {
+                            if (offset != 0) {
+                                return super.createObject(data, offset);  // Embedded document
+                            }
+                            return new TrackedDBObject(data, this, site, projection, fallback);
+                        }
+
+                    };
+                }
+
+            };
+        }
+
+    }
+
+    private class TrackedDBObject extends LazyDBObject {
+
+        private final Site site;
+        private final Set<String> projection;
+        private final Fallback fallback;
+        private final Object id;
+        private DBObject full;
+
+        TrackedDBObject(byte[] data, LazyDBCallback callback, Site site, Set<String> projection, Fallback fallback) {
+            super(data, callback);
+            this.site = site;
+            this.projection = projection;
+            this.fallback = fallback;
+            this.id = fallback == null ? null : super.get("_id");
+            if (id != null) {
+                fallback.decoded(id);
+            }
+            site.decoded(getBSONSize(), projection != null);
+        }
+
+        private boolean outside(String key) {
+            return projection != null && !projection.contains(key);
+        }
+
+        private synchronized DBObject full() {
+            if (full == null) {
+                full = id == null ? null : fallback.fetch(id);
+                if (full == null) {
+                    full = this;  // Gone, or nothing to look it up by, so make do with what we have
+                }
+            }
+            return full;
+        }
+
+        @Override
+        public Object get(String key) {
+            site.read(key);
+            return outside(key) && full() != this ? full().get(key) : super.get(key);
+        }
+
+        @Override
+        public boolean containsField(String key) {
+            site.read(key);
+            // super.containsField() goes through keySet(), which would count as reading everything
+            return outside(key) && full() != this ? full().containsField(key) : super.keySet().contains(key);
+        }
+
+        @Override
+        public Set<String> keySet() {
+            site.readEverything();
+            return projection != null && full() != this ? full().keySet() : super.keySet();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<Map.Entry<String, Object>> entrySet() {
+            site.readEverything();
+            if (projection != null && full() != this) {
+                return ((Map<String, Object>) full().toMap()).entrySet();
+            }
+            return super.entrySet();
+        }
+
+        @Override
+        public Map toMap() {
+            site.readEverything();
+            return projection != null && full() != this ? full().toMap() : super.toMap();
+        }
+
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSONParseException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import org.bson.BasicBSONEncoder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkImporterTest {
+
+    private final DBCollection collection = mock(DBCollection.class);
+    private final List<Object> inserted = Collections.synchronizedList(Lists.newArrayList());
+    private volatile long writeDelay = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        when(collection.initializeUnorderedBulkOperation()).thenAnswer(new Answer<BulkWriteOperation>() {
+
+            @Override
+            public BulkWriteOperation answer(InvocationOnMock invocation) {
+                final List<Object> batch = Lists.newArrayList();
+                BulkWriteOperation bulk = mock(BulkWriteOperation.class);
+                doAnswer(new Answer<Void>() {
+
+                    @Override
+                    public Void answer(InvocationOnMock invocation) {
+                        batch.add(((DBObject) invocation.getArguments()[0]).get("_id"));
+                        return null;
+                    }
+
+                }).when(bulk).insert(any(DBObject.class));
+                when(bulk.execute()).thenAnswer(new Answer<BulkWriteResult>() {
+
+                    @Override
+                    public BulkWriteResult answer(InvocationOnMock invocation) throws Exception {
+                        Thread.sleep(writeDelay);
+                        inserted.addAll(batch);
+                        BulkWriteResult result = mock(BulkWriteResult.class);
+                        when(result.getInsertedCount()).thenReturn(batch.size());
+                        return result;
+                    }
+
+                });
+                return bulk;
+            }
+
+        });
+    }
+
+    @Test
+    public void importsNdjsonAcrossRegions() throws Exception {
+        File file = File.createTempFile("import", ".ndjson");
+        file.deleteOnExit();
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            lines.append("{ \"_id\" : ").append(i).append(", \"name\" : \"document ").append(i).append("\" }\n");
+            if (i == 50) {
+                lines.append("\n");
+            }
+        }
+        Files.write(lines.toString(), file, StandardCharsets.UTF_8);
+
+        try (BulkImporter importer = new BulkImporter(collection, 256, 256, 3, 7, 2)) {
+            importer.importFile(file, BulkImporter.Format.NDJSON);
+
+            assertThat(importer.getDocumentsWritten().get()).isEqualTo(100);
+            assertThat(importer.getBytesRead().get()).isEqualTo(file.length());
+        }
+        assertThat(inserted).hasSize(100).contains(0, 50, 99);
+    }
+
+    @Test
+    public void importsBsonAcrossRegions() throws Exception {
+        File file = File.createTempFile("import", ".bson");
+        file.deleteOnExit();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            bytes.write(new BasicBSONEncoder().encode(new BasicDBObject("_id", i).append("name", "document " + i)));
+        }
+        Files.write(bytes.toByteArray(), file);
+
+        try (BulkImporter importer = new BulkImporter(collection, 256, 256, 3, 7, 2)) {
+            importer.importFile(file, BulkImporter.Format.forFile(file));
+
+            assertThat(importer.getDocumentsWritten().get()).isEqualTo(100);
+        }
+        assertThat(inserted).hasSize(100).contains(0, 50, 99);
+    }
+
+    @Test
+    public void splitsBsonWhenRegionsEndMidDocument() throws Exception {
+        File file = File.createTempFile("import", ".bson");
+        file.deleteOnExit();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            bytes.write(new BasicBSONEncoder().encode(new BasicDBObject("_id", i).append("name", String.format("document %02d", i))));
+        }
+        Files.write(bytes.toByteArray(), file);
+        long documentSize = file.length() / 20;
+
+        // Every other region boundary falls halfway through a document
+        try (BulkImporter importer = new BulkImporter(collection, documentSize * 3 / 2, documentSize * 3 / 2, 4, 3, 2)) {
+            importer.importFile(file, BulkImporter.Format.BSON);
+
+            assertThat(importer.getDocumentsWritten().get()).isEqualTo(20);
+            assertThat(importer.getBytesRead().get()).isEqualTo(file.length());
+        }
+        assertThat(inserted).hasSize(20).containsOnly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19);
+    }
+
+    @Test
+    public void waitsForWritesWhenParsingFails() throws Exception {
+        File file = File.createTempFile("import", ".ndjson");
+        file.deleteOnExit();
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 49; i++) {
+            lines.append("{ \"_id\" : ").append(i).append(" }\n");
+        }
+        lines.append("{ \"_id\" : \n");
+        Files.write(lines.toString(), file, StandardCharsets.UTF_8);
+        writeDelay = 50;
+
+        try (BulkImporter importer = new BulkImporter(collection, 1024 * 1024, 1024 * 1024, 1, 7, 2)) {
+            importer.importFile(file, BulkImporter.Format.NDJSON);
+            failBecauseExceptionWasNotThrown(JSONParseException.class);
+        } catch (JSONParseException e) {
+            // Every batch handed to the writers is written before importFile returns
+            assertThat(inserted).hasSize(49);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import io.dropwizard.jackson.Jackson;
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONObject;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Binary;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FieldCompressionCodecTest {
+
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final String body = Strings.repeat("all work and no play makes jack a dull boy ", 100);
+
+    private FieldCompressionCodec codec(String algorithm) {
+        FieldCompressionRepresentation representation = mapper.convertValue(
+                ImmutableMap.of("algorithm", algorithm, "fields", new String[]{"body"}),
+                FieldCompressionRepresentation.class);
+        return new FieldCompressionCodec(representation, metrics, "blog.posts");
+    }
+
+    private byte[] encode(FieldCompressionCodec codec, DBObject o) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.getEncoderFactory().create().writeObject(buffer, o);
+        return buffer.toByteArray();
+    }
+
+    @Test
+    public void roundTripsCompressedFields() throws Exception {
+        for (String algorithm : new String[]{"lz4", "snappy"}) {
+            FieldCompressionCodec codec = codec(algorithm);
+            DBObject original = new BasicDBObject("_id", 1).append("title", "short").append("body", body);
+            byte[] bytes = encode(codec, original);
+
+            BSONObject stored = new BasicBSONDecoder().readObject(bytes);
+            assertThat(stored.get("body")).isInstanceOf(Binary.class);
+            assertThat(stored.get("title")).isEqualTo("short");
+            assertThat(bytes.length).isLessThan(body.length());
+            assertThat(original.get("body")).isEqualTo(body);
+
+            DBObject decoded = codec.getDecoderFactory().create().decode(bytes, (DBCollection) null);
+            assertThat(decoded.get("body")).isEqualTo(body);
+            assertThat(decoded.get("title")).isEqualTo("short");
+        }
+        assertThat(metrics.histogram("edu.acu.dropwizard.configuration.mongo.FieldCompressionCodec.blog.posts.compression-ratio").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void compressesFieldsInSetOperator() throws Exception {
+        byte[] bytes = encode(codec("lz4"), new BasicDBObject("$set", new BasicDBObject("body", body)));
+
+        BSONObject stored = new BasicBSONDecoder().readObject(bytes);
+        assertThat(((BasicBSONObject) stored.get("$set")).get("body")).isInstanceOf(Binary.class);
+    }
+
+    @Test
+    public void leavesForeignBinaryAlone() throws Exception {
+        FieldCompressionCodec codec = codec("lz4");
+        Binary tooShort = new Binary(FieldCompressionCodec.BINARY_SUBTYPE, new byte[]{1, 1});
+        Binary unknownAlgorithm = new Binary(FieldCompressionCodec.BINARY_SUBTYPE, new byte[]{9, 1, 0, 0, 0, 1, 42});
+        Binary hugeLength = new Binary(FieldCompressionCodec.BINARY_SUBTYPE, new byte[]{1, 1, 0x7f, 0, 0, 0, 42});
+        Binary garbage = new Binary(FieldCompressionCodec.BINARY_SUBTYPE, new byte[]{1, 1, 0, 0, 0, 8, -1, -1, -1});
+
+        for (Binary binary : new Binary[]{tooShort, unknownAlgorithm, hugeLength, garbage}) {
+            assertThat(codec.decompress(binary)).isSameAs(binary);
+        }
+
+        byte[] bytes = encode(codec, new BasicDBObject("body", garbage));
+        assertThat(codec.getDecoderFactory().create().decode(bytes, (DBCollection) null).get("body")).isEqualTo(garbage);
+    }
+
+    @Test
+    public void findAndModifyCompressesUpdateAndDecompressesResult() throws Exception {
+        FieldCompressionCodec codec = codec("lz4");
+        DBCollection collection = mock(DBCollection.class);
+        when(collection.getDBDecoderFactory()).thenReturn(codec.getDecoderFactory());
+        DBObject query = new BasicDBObject("_id", 1);
+        // The DB's default codec is used for commands, so this is what comes back
+        when(collection.findAndModify(eq(query), any(DBObject.class), any(DBObject.class), eq(false), any(DBObject.class), eq(true), eq(false)))
+                .thenReturn(new BasicDBObject("_id", 1).append("body", codec.compress(body)));
+
+        DBObject result = FieldCompressionCodec.findAndModify(collection, query, null, null, false, new BasicDBObject("$set", new BasicDBObject("body", body)), true, false);
+
+        assertThat(result.get("body")).isEqualTo(body);
+        ArgumentCaptor<DBObject> update = ArgumentCaptor.forClass(DBObject.class);
+        verify(collection).findAndModify(eq(query), any(DBObject.class), any(DBObject.class), eq(false), update.capture(), eq(true), eq(false));
+        assertThat(((DBObject) update.getValue().get("$set")).get("body")).isInstanceOf(Binary.class);
+    }
+
+    @Test
+    public void findAndModifyPassesThroughUncompressedCollections() throws Exception {
+        DBCollection collection = mock(DBCollection.class);
+        DBObject update = new BasicDBObject("$set", new BasicDBObject("body", body));
+
+        FieldCompressionCodec.findAndModify(collection, new BasicDBObject(), null, null, false, update, false, false);
+
+        verify(collection).findAndModify(new BasicDBObject(), null, null, false, update, false, false);
+    }
+
+    @Test
+    public void leavesSmallValuesAlone() throws Exception {
+        byte[] bytes = encode(codec("lz4"), new BasicDBObject("body", "tiny"));
+
+        assertThat(new BasicBSONDecoder().readObject(bytes).get("body")).isEqualTo("tiny");
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MongoAsyncExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final MongoAsyncExecutor executor = new MongoAsyncExecutor(pool, scheduler);
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void allOfKeepsOrder() throws Exception {
+        ListenableFuture<String> first = Futures.immediateFuture("a");
+        ListenableFuture<String> second = Futures.immediateFuture("b");
+
+        assertThat(MongoAsyncExecutor.allOf(first, second).get()).containsExactly("a", "b");
+    }
+
+    @Test
+    public void firstOfTakesFirstSuccessAndCancelsTheRest() throws Exception {
+        SettableFuture<String> slow = SettableFuture.create();
+        ListenableFuture<String> failed = Futures.immediateFailedFuture(new IllegalStateException());
+        ListenableFuture<String> fast = Futures.immediateFuture("fast");
+
+        assertThat(MongoAsyncExecutor.firstOf(slow, failed, fast).get()).isEqualTo("fast");
+        assertThat(slow.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void firstOfFailsWhenAllFail() throws Exception {
+        ListenableFuture<String> failed = Futures.immediateFailedFuture(new IllegalStateException());
+
+        try {
+            MongoAsyncExecutor.firstOf(failed, failed).get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    public void withTimeoutCancelsSlowFutures() throws Exception {
+        SettableFuture<String> slow = SettableFuture.create();
+
+        try {
+            executor.withTimeout(slow, 10, TimeUnit.MILLISECONDS).get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(TimeoutException.class);
+        }
+        assertThat(slow.isCancelled()).isTrue();
+        assertThat(executor.withTimeout(Futures.immediateFuture("ok"), 1, TimeUnit.SECONDS).get()).isEqualTo("ok");
+    }
+
+    @Test
+    public void asyncCollectionsRunDriverCallsOnTheExecutor() throws Exception {
+        DB db = mock(DB.class);
+        DBCollection collection = mock(DBCollection.class);
+        DBObject query = new BasicDBObject("_id", 1);
+        DBObject document = new BasicDBObject("_id", 1).append("title", "Hello");
+        CommandResult stats = mock(CommandResult.class);
+        when(db.getCollection("posts")).thenReturn(collection);
+        when(db.command(new BasicDBObject("dbStats", 1))).thenReturn(stats);
+        when(collection.findOne(query, null)).thenReturn(document);
+        when(collection.count(query)).thenReturn(1L);
+
+        AsyncDB async = executor.wrap(db);
+        AsyncDBCollection posts = async.getCollection("posts");
+
+        assertThat(posts.getCollection()).isSameAs(collection);
+        assertThat(posts.findOne(query).get()).isEqualTo(document);
+        assertThat(posts.count(query).get()).isEqualTo(1L);
+        assertThat(async.command(new BasicDBObject("dbStats", 1)).get()).isSameAs(stats);
+    }
+
+}
@@ -31,6 +31,10 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.DefaultDBDecoder;
 import com.mongodb.DefaultDBEncoder;
 import com.mongodb.LazyDBDecoder;
@@ -40,22 +44,33 @@ import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteConcern;
 import io.dropwizard.configuration.ConfigurationFactory;
+import io.dropwizard.configuration.ConfigurationValidationException;
 import io.dropwizard.jackson.Jackson;
 import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
 import io.dropwizard.setup.Environment;
 import java.io.File;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.net.SocketFactory;
 import javax.validation.Valid;
 import javax.validation.Validation;
 import javax.validation.Validator;
 import javax.validation.constraints.NotNull;
 import lombok.Getter;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -85,6 +100,9 @@ public class MongoClientFactoryTest {
             = new ConfigurationFactory<>(Example.class, validator, Jackson.newObjectMapper(), "dw");
     private File testFile;
     private File optionsTestFile;
+    private File compressionTestFile;
+    private File indexesTestFile;
+    private File overridesTestFile;
 
     @After
     public void resetConfigOverrides() {
@@ -105,6 +123,9 @@ public class MongoClientFactoryTest {
         this.testFile = new File(Resources.getResource("client-defaults-test.yml").toURI());
         this.optionsTestFile = new File(Resources.getResource("client-options-test.yml").toURI());
         this.replicaTestFile = new File(Resources.getResource("client-replica-test.yml").toURI());
+        this.compressionTestFile = new File(Resources.getResource("client-compression-test.yml").toURI());
+        this.indexesTestFile = new File(Resources.getResource("client-indexes-test.yml").toURI());
+        this.overridesTestFile = new File(Resources.getResource("client-overrides-test.yml").toURI());
     }
 
     // @Test  // This test requires mongodb to be running on localhost :(
@@ -176,4 +197,99 @@ public class MongoClientFactoryTest {
         assertThat(options.getRequiredReplicaSetName()).isEqualTo("myRepSet1");
     }
 
+    @Test
+    public void correctlyAppliesFieldCompressionFromConfiguration() throws Exception {
+        final Example example = factory.build(compressionTestFile);
+        final MongoClient client = example.getMongoClient().build(environment);
+
+        assertThat(client.getDB("blog").getCollection("posts").getDBEncoderFactory()).isNotEqualTo(DefaultDBEncoder.FACTORY);
+        assertThat(client.getDB("blog").getCollection("posts").getDBDecoderFactory()).isNotEqualTo(DefaultDBDecoder.FACTORY);
+        assertThat(client.getDB("blog").getCollection("comments").getDBDecoderFactory()).isNull();
+    }
+
+    @Test
+    public void rejectsFieldCompressionWithLazyDecoder() throws Exception {
+        System.setProperty("dw.mongoClient.options.dbDecoderFactory", "lazy");
+        try {
+            factory.build(compressionTestFile);
+            failBecauseExceptionWasNotThrown(ConfigurationValidationException.class);
+        } catch (ConfigurationValidationException e) {
+            assertThat(e.getMessage()).contains(".compression can't be combined");
+        }
+    }
+
+    @Test
+    public void asyncExecutorFailsFuturesWhenItsQueueIsFull() throws Exception {
+        final LifecycleEnvironment lifecycle = new LifecycleEnvironment();
+        final ContainerLifeCycle container = new ContainerLifeCycle();
+        when(environment.lifecycle()).thenReturn(lifecycle);
+        final MongoClient client = mock(MongoClient.class);
+        when(client.getMongoClientOptions()).thenReturn(MongoClientOptions.builder()
+                .connectionsPerHost(1)
+                .threadsAllowedToBlockForConnectionMultiplier(1)
+                .build());
+        final DBCollection collection = mock(DBCollection.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(collection.count(any(DBObject.class))).thenAnswer(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Exception {
+                release.await();
+                return 1L;
+            }
+
+        });
+
+        final MongoAsyncExecutor executor = factory.build(testFile).getMongoClient().buildAsyncExecutor(client, environment);
+        lifecycle.attach(container);
+        container.start();
+        try {
+            final AsyncDBCollection posts = executor.wrap(collection);
+            // One call running and one queued fill the executor
+            final ListenableFuture<Long> running = posts.count(new BasicDBObject());
+            final ListenableFuture<Long> queued = posts.count(new BasicDBObject());
+            final ListenableFuture<Long> rejected = posts.count(new BasicDBObject());
+
+            try {
+                rejected.get(1, TimeUnit.SECONDS);
+                failBecauseExceptionWasNotThrown(ExecutionException.class);
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+            }
+            release.countDown();
+            assertThat(running.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+            assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo(1L);
+        } finally {
+            release.countDown();
+            container.stop();
+        }
+    }
+
+    @Test
+    public void correctlyExtractsIndexesFromConfiguration() throws Exception {
+        final Example example = factory.build(indexesTestFile);
+        final List<IndexRepresentation> indexes = example.getMongoClient().getIndexes();
+
+        assertThat(indexes).hasSize(2);
+        assertThat(indexes.get(0).getNamespace()).isEqualTo("blog.posts");
+        assertThat(indexes.get(0).getKeys().keySet()).containsExactly("author", "published");
+        assertThat(indexes.get(0).getKeys().get("published")).isEqualTo(-1);
+        assertThat(indexes.get(1).getName()).isEqualTo("sessions_ttl");
+        assertThat(indexes.get(1).getExpireAfterSeconds()).isEqualTo(3600);
+    }
+
+    @Test
+    public void correctlyAppliesOverridesFromConfiguration() throws Exception {
+        final Example example = factory.build(overridesTestFile);
+        final MongoClient client = example.getMongoClient().build(environment);
+
+        assertThat(client.getWriteConcern()).isEqualTo(WriteConcern.REPLICAS_SAFE);
+        assertThat(client.getDB("audit").getWriteConcern()).isEqualTo(WriteConcern.UNACKNOWLEDGED);
+        assertThat(client.getDB("audit").getCollection("events").getWriteConcern()).isEqualTo(WriteConcern.UNACKNOWLEDGED);
+        assertThat(client.getDB("shop").getWriteConcern()).isEqualTo(WriteConcern.REPLICAS_SAFE);
+        assertThat(client.getDB("shop").getCollection("orders").getWriteConcern()).isEqualTo(WriteConcern.JOURNALED);
+        assertThat(client.getDB("shop").getCollection("orders").getReadPreference()).isEqualTo(ReadPreference.primary());
+        assertThat(client.getDB("shop").getCollection("catalog").getReadPreference()).isEqualTo(ReadPreference.secondaryPreferred());
+    }
+
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkUpdateRequestBuilder;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteRequestBuilder;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MongoCounterServiceTest {
+
+    private final DB db = mock(DB.class);
+    private final DBCollection collection = mock(DBCollection.class);
+    private final BulkWriteOperation bulk = mock(BulkWriteOperation.class);
+    private final BulkWriteRequestBuilder find = mock(BulkWriteRequestBuilder.class);
+    private final BulkUpdateRequestBuilder upsert = mock(BulkUpdateRequestBuilder.class);
+    private final MongoCounterService service = new MongoCounterService(db, 1, TimeUnit.SECONDS);
+
+    @Before
+    public void setUp() throws Exception {
+        when(db.getCollection("posts")).thenReturn(collection);
+        when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+        when(bulk.find(any(BasicDBObject.class))).thenReturn(find);
+        when(find.upsert()).thenReturn(upsert);
+    }
+
+    @Test
+    public void collapsesIncrementsIntoOneUpdatePerDocument() throws Exception {
+        service.increment("posts", 1, "views");
+        service.increment("posts", 1, "views");
+        service.increment("posts", 1, "likes", 5);
+        service.flush();
+
+        verify(bulk).find(new BasicDBObject("_id", 1));
+        verify(upsert).updateOne(new BasicDBObject("$inc", new BasicDBObject("views", 2L).append("likes", 5L)));
+        verify(bulk).execute();
+    }
+
+    @Test
+    public void flushWithNothingPendingDoesNotWrite() throws Exception {
+        service.increment("posts", 1, "views", 0);
+        service.flush();
+
+        verify(db, never()).getCollection("posts");
+    }
+
+    @Test
+    public void flushWithoutConnectionIsRetried() throws Exception {
+        when(bulk.execute()).thenThrow(mock(MongoTimeoutException.class)).thenReturn(null);
+
+        service.increment("posts", 1, "views");
+        service.flush();
+        service.flush();
+
+        verify(upsert, times(2)).updateOne(new BasicDBObject("$inc", new BasicDBObject("views", 1L)));
+    }
+
+    @Test
+    public void uncertainWritesAreOnlyRetriedWhenEnabled() throws Exception {
+        when(bulk.execute()).thenThrow(mock(MongoSocketException.class));
+
+        service.increment("posts", 1, "views");
+        service.flush();
+        service.flush();
+        verify(upsert, times(1)).updateOne(new BasicDBObject("$inc", new BasicDBObject("views", 1L)));
+
+        service.setRetryUncertainWrites(true);
+        service.increment("posts", 1, "views");
+        service.flush();
+        service.flush();
+        verify(upsert, times(3)).updateOne(new BasicDBObject("$inc", new BasicDBObject("views", 1L)));
+    }
+
+    @Test
+    public void transientWriteErrorsAreRetried() throws Exception {
+        BulkWriteException failure = mock(BulkWriteException.class);
+        when(failure.getWriteErrors()).thenReturn(Arrays.asList(new BulkWriteError(10107, "not master", new BasicDBObject(), 0)));
+        when(bulk.execute()).thenThrow(failure).thenReturn(null);
+
+        service.increment("posts", 1, "views");
+        service.flush();
+        service.flush();
+
+        verify(upsert, times(2)).updateOne(new BasicDBObject("$inc", new BasicDBObject("views", 1L)));
+    }
+
+    @Test
+    public void permanentWriteErrorsAreDropped() throws Exception {
+        BulkWriteException failure = mock(BulkWriteException.class);
+        when(failure.getWriteErrors()).thenReturn(Arrays.asList(new BulkWriteError(14, "Cannot apply $inc to a value of non-numeric type", new BasicDBObject(), 0)));
+        when(bulk.execute()).thenThrow(failure).thenReturn(null);
+
+        service.increment("posts", 1, "title");
+        service.flush();
+        service.flush();
+
+        verify(upsert, times(1)).updateOne(new BasicDBObject("$inc", new BasicDBObject("title", 1L)));
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.Cursor;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import io.dropwizard.jackson.Jackson;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MongoIndexManagerTest {
+
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+    private final MongoClient client = mock(MongoClient.class);
+    private final DB db = mock(DB.class);
+    private final DBCollection collection = mock(DBCollection.class);
+
+    private IndexRepresentation index(String field, int direction) {
+        return mapper.convertValue(
+                ImmutableMap.of("namespace", "blog.posts", "keys", ImmutableMap.of(field, direction)),
+                IndexRepresentation.class);
+    }
+
+    private void listIndexes(DBObject... indexes) {
+        CommandResult result = mock(CommandResult.class);
+        when(result.ok()).thenReturn(true);
+        when(result.get("cursor")).thenReturn(new BasicDBObject("firstBatch", Arrays.asList(indexes)));
+        when(db.command(new BasicDBObject("listIndexes", "posts"))).thenReturn(result);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        when(client.getDB("blog")).thenReturn(db);
+        when(db.getCollection("posts")).thenReturn(collection);
+        when(collection.getDB()).thenReturn(db);
+        when(collection.getName()).thenReturn("posts");
+        // WiredTiger has no system.indexes
+        when(collection.getIndexInfo()).thenReturn(Lists.<DBObject>newArrayList());
+        listIndexes(
+                new BasicDBObject("name", "_id_").append("key", new BasicDBObject("_id", 1)),
+                new BasicDBObject("name", "author_1").append("key", new BasicDBObject("author", 1.0)));
+    }
+
+    @Test
+    public void onlyBuildsMissingIndexesInTheBackground() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        MongoIndexManager manager = new MongoIndexManager(client, Lists.newArrayList(index("author", 1), index("title", 1)), 2, metrics, "blog");
+        manager.start();
+
+        assertThat(manager.awaitCompletion(10, TimeUnit.SECONDS)).isTrue();
+        manager.stop();
+
+        verify(collection, never()).createIndex(eq((DBObject) new BasicDBObject("author", 1)), any(DBObject.class));
+        verify(collection).createIndex(new BasicDBObject("title", 1), new BasicDBObject("background", true));
+        assertThat(metrics.getGauges().get("edu.acu.dropwizard.configuration.mongo.MongoIndexManager.blog.existing").getValue()).isEqualTo(1);
+        assertThat(metrics.getGauges().get("edu.acu.dropwizard.configuration.mongo.MongoIndexManager.blog.built").getValue()).isEqualTo(1);
+    }
+
+    @Test
+    public void findsIndexesThroughListIndexesWhenSystemIndexesIsEmpty() throws Exception {
+        assertThat(MongoIndexManager.listIndexes(collection)).hasSize(2);
+        verify(collection, never()).getIndexInfo();
+    }
+
+    @Test
+    public void fallsBackToSystemIndexesBeforeListIndexes() throws Exception {
+        CommandResult unsupported = mock(CommandResult.class);
+        when(unsupported.getInt("code", 0)).thenReturn(59);
+        when(db.command(new BasicDBObject("listIndexes", "posts"))).thenReturn(unsupported);
+        List<DBObject> legacy = Lists.<DBObject>newArrayList(new BasicDBObject("name", "_id_").append("key", new BasicDBObject("_id", 1)));
+        when(collection.getIndexInfo()).thenReturn(legacy);
+
+        assertThat(MongoIndexManager.listIndexes(collection)).isEqualTo(legacy);
+    }
+
+    @Test
+    public void readsProgressWithCurrentOp() throws Exception {
+        DB admin = mock(DB.class);
+        CommandResult inprog = mock(CommandResult.class);
+        when(inprog.ok()).thenReturn(true);
+        when(inprog.get("inprog")).thenReturn(Arrays.asList(new BasicDBObject("ns", "blog.posts").append("msg", "Index Build (background): 10/100 10%")));
+        when(client.getDB("admin")).thenReturn(admin);
+        when(admin.command(new BasicDBObject("currentOp", 1))).thenReturn(inprog);
+
+        new MongoIndexManager(client, Lists.newArrayList(index("title", 1)), 1, new MetricRegistry(), "blog").logProgress();
+
+        verify(admin).command(new BasicDBObject("currentOp", 1));
+        verify(admin, never()).getCollection(anyString());
+    }
+
+    @Test
+    public void managersCanShareARegistry() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        new MongoIndexManager(client, Lists.newArrayList(index("author", 1)), 1, metrics, "blog");
+        new MongoIndexManager(client, Lists.newArrayList(index("author", 1)), 1, metrics, "archive");
+        new MongoIndexManager(client, Lists.newArrayList(index("author", 1)), 1, metrics, "archive");
+
+        assertThat(metrics.getGauges().keySet()).contains(
+                "edu.acu.dropwizard.configuration.mongo.MongoIndexManager.blog.unused",
+                "edu.acu.dropwizard.configuration.mongo.MongoIndexManager.archive.unused");
+    }
+
+    @Test
+    public void usageIsReadOncePerCollection() throws Exception {
+        listIndexes(
+                new BasicDBObject("name", "author_1").append("key", new BasicDBObject("author", 1)),
+                new BasicDBObject("name", "title_1").append("key", new BasicDBObject("title", 1)));
+        Cursor stats = mock(Cursor.class);
+        when(stats.hasNext()).thenReturn(true, true, true, false);
+        when(stats.next()).thenReturn(
+                new BasicDBObject("name", "author_1").append("accesses", new BasicDBObject("ops", 0L)),
+                new BasicDBObject("name", "title_1").append("accesses", new BasicDBObject("ops", 0L)),
+                new BasicDBObject("name", "title_1").append("accesses", new BasicDBObject("ops", 3L)));
+        when(collection.aggregate(anyListOf(DBObject.class), any(AggregationOptions.class))).thenReturn(stats);
+        MetricRegistry metrics = new MetricRegistry();
+        MongoIndexManager manager = new MongoIndexManager(client, Lists.newArrayList(index("author", 1), index("title", 1)), 1, metrics, "blog");
+
+        manager.checkUsage();
+
+        verify(collection, times(1)).aggregate(anyListOf(DBObject.class), any(AggregationOptions.class));
+        verify(stats).close();
+        assertThat(metrics.getGauges().get("edu.acu.dropwizard.configuration.mongo.MongoIndexManager.blog.unused").getValue()).isEqualTo(1);
+    }
+
+    @Test
+    public void keyOrderMatters() throws Exception {
+        BasicDBObject actual = new BasicDBObject("a", 1).append("b", -1);
+
+        assertThat(MongoIndexManager.sameKeys(actual, ImmutableMap.<String, Object>of("a", 1.0, "b", -1))).isTrue();
+        assertThat(MongoIndexManager.sameKeys(actual, ImmutableMap.<String, Object>of("b", -1, "a", 1))).isFalse();
+        assertThat(MongoIndexManager.sameKeys(actual, ImmutableMap.<String, Object>of("a", 1))).isFalse();
+    }
+
+}
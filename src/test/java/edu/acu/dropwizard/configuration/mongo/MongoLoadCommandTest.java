@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MongoLoadCommandTest {
+
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long DURATION_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final DBCollection collection = mock(DBCollection.class);
+
+    private MongoLoadCommand.Worker run() {
+        long start = System.nanoTime();
+        return new MongoLoadCommand.Worker(collection, start, start + DURATION_NANOS, INTERVAL_NANOS, 1.0, 100, 16).call();
+    }
+
+    @Test
+    public void fixedRateRunsTheExpectedNumberOfOperations() throws Exception {
+        MongoLoadCommand.Worker worker = run();
+
+        assertThat(worker.service.getTotalCount()).isEqualTo(DURATION_NANOS / INTERVAL_NANOS);
+        assertThat(worker.response.getTotalCount()).isEqualTo(DURATION_NANOS / INTERVAL_NANOS);
+        assertThat(worker.errors).isEqualTo(0);
+    }
+
+    @Test
+    public void stallInflatesResponseTimeButNotServiceTime() throws Exception {
+        final AtomicBoolean stalled = new AtomicBoolean();
+        when(collection.findOne(any(DBObject.class))).thenAnswer(new Answer<DBObject>() {
+
+            @Override
+            public DBObject answer(InvocationOnMock invocation) throws Exception {
+                if (stalled.compareAndSet(false, true)) {
+                    Thread.sleep(200);
+                }
+                return null;
+            }
+
+        });
+
+        MongoLoadCommand.Worker worker = run();
+        long slowMicros = TimeUnit.MILLISECONDS.toMicros(100);
+
+        // Only the stalled call itself was slow to serve...
+        assertThat(worker.service.getCountBetweenValues(slowMicros, Long.MAX_VALUE)).isEqualTo(1);
+        // ...but every call that was due during the stall was late
+        assertThat(worker.response.getCountBetweenValues(slowMicros, Long.MAX_VALUE)).isGreaterThanOrEqualTo(9);
+        assertThat(worker.service.getTotalCount()).isEqualTo(DURATION_NANOS / INTERVAL_NANOS);
+    }
+
+}
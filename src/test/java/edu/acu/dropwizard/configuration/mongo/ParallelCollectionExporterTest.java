@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.ParallelScanOptions;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ParallelCollectionExporterTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+    private final DBCollection collection = mock(DBCollection.class);
+    private final ParallelScanOptions options = ParallelScanOptions.builder().numCursors(2).batchSize(3).build();
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    private Cursor cursor(int from, int to) {
+        List<DBObject> documents = Lists.newArrayList();
+        for (int i = from; i < to; i++) {
+            documents.add(new BasicDBObject("_id", i));
+        }
+        final Iterator<DBObject> iterator = documents.iterator();
+        Cursor cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return iterator.hasNext();
+            }
+
+        });
+        when(cursor.next()).thenAnswer(new Answer<DBObject>() {
+
+            @Override
+            public DBObject answer(InvocationOnMock invocation) {
+                return iterator.next();
+            }
+
+        });
+        return cursor;
+    }
+
+    @Test
+    public void exportsEveryCursorInBatches() throws Exception {
+        Cursor first = cursor(0, 10);
+        Cursor second = cursor(10, 17);
+        when(collection.parallelScan(any(ParallelScanOptions.class))).thenReturn(Lists.<Cursor>newArrayList(first, second));
+        final List<Integer> sizes = Lists.newArrayList();
+        final List<Object> ids = Lists.newArrayList();
+
+        long count = new ParallelCollectionExporter(pool, 1).export(collection, options, new ExportSink() {
+
+            @Override
+            public void write(List<DBObject> batch) {
+                sizes.add(batch.size());
+                for (DBObject document : batch) {
+                    ids.add(document.get("_id"));
+                }
+            }
+
+        });
+
+        assertThat(count).isEqualTo(17);
+        assertThat(ids).hasSize(17);
+        assertThat(sizes).containsOnly(3, 1);
+        verify(first).close();
+        verify(second).close();
+    }
+
+    @Test(timeout = 10000)
+    public void readersRunSideBySideOnASingleThreadPool() throws Exception {
+        // Each cursor waits for the other to start, which only works if both run at once
+        final CountDownLatch started = new CountDownLatch(2);
+        Answer<Boolean> waitForBoth = new Answer<Boolean>() {
+
+            private final ThreadLocal<Boolean> first = new ThreadLocal<>();
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Exception {
+                if (first.get() == null) {
+                    first.set(false);
+                    started.countDown();
+                    started.await();
+                }
+                return false;
+            }
+
+        };
+        Cursor first = mock(Cursor.class);
+        Cursor second = mock(Cursor.class);
+        when(first.hasNext()).thenAnswer(waitForBoth);
+        when(second.hasNext()).thenAnswer(waitForBoth);
+        when(collection.parallelScan(any(ParallelScanOptions.class))).thenReturn(Lists.<Cursor>newArrayList(first, second));
+        ForkJoinPool single = new ForkJoinPool(1);
+
+        try {
+            assertThat(new ParallelCollectionExporter(single, 1).export(collection, options, mock(ExportSink.class))).isEqualTo(0);
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failingReaderStopsTheExport() throws Exception {
+        Cursor failing = mock(Cursor.class);
+        when(failing.hasNext()).thenThrow(new MongoException("cursor killed"));
+        Cursor endless = mock(Cursor.class);
+        when(endless.hasNext()).thenReturn(true);
+        when(endless.next()).thenReturn(new BasicDBObject("_id", 1));
+        when(collection.parallelScan(any(ParallelScanOptions.class))).thenReturn(Lists.<Cursor>newArrayList(endless, failing));
+
+        try {
+            new ParallelCollectionExporter(pool, 1).export(collection, options, mock(ExportSink.class));
+            failBecauseExceptionWasNotThrown(MongoException.class);
+        } catch (MongoException e) {
+            assertThat(e.getMessage()).isEqualTo("cursor killed");
+        }
+        verify(endless).close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoInFlightBatches() throws Exception {
+        new ParallelCollectionExporter(pool, 0);
+    }
+
+    @Test
+    public void writesNdjson() throws Exception {
+        Cursor cursor = cursor(0, 2);
+        when(collection.parallelScan(any(ParallelScanOptions.class))).thenReturn(Lists.<Cursor>newArrayList(cursor));
+        File file = File.createTempFile("export", ".ndjson");
+        file.deleteOnExit();
+
+        try (NdjsonExportSink sink = new NdjsonExportSink(file)) {
+            new ParallelCollectionExporter(pool, 4).export(collection, options, sink);
+        }
+
+        assertThat(Files.readLines(file, StandardCharsets.UTF_8)).containsExactly("{ \"_id\" : 0}", "{ \"_id\" : 1}");
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014, Abilene Christian University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of Abilene Christian University nor the names of its
+ *       contributors may be used to endorse or promote products derived from this
+ *       software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.acu.dropwizard.configuration.mongo;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBObject;
+import java.util.Arrays;
+import org.bson.BasicBSONEncoder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProjectionLearnerTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ProjectionLearner learner = new ProjectionLearner(2, metrics);
+    private final DBCollection collection = mock(DBCollection.class);
+    private final DBCursor cursor = mock(DBCursor.class);
+    private final BasicDBObject query = new BasicDBObject("author", "me");
+    private final BasicDBObject document = new BasicDBObject("_id", 1).append("title", "t").append("body", "b");
+
+    @Before
+    public void setUp() throws Exception {
+        when(collection.getFullName()).thenReturn("blog.posts");
+        when(collection.find(any(DBObject.class))).thenReturn(cursor);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+        when(cursor.setDecoderFactory(any(DBDecoderFactory.class))).thenReturn(cursor);
+    }
+
+    private DBDecoderFactory find() {
+        ArgumentCaptor<DBDecoderFactory> decoder = ArgumentCaptor.forClass(DBDecoderFactory.class);
+        learner.find("site", collection, query);
+        verify(cursor, atLeastOnce()).setDecoderFactory(decoder.capture());
+        return decoder.getValue();
+    }
+
+    private DBObject decode(DBDecoderFactory decoder, DBObject document) {
+        return decoder.create().decode(new BasicBSONEncoder().encode(document), collection);
+    }
+
+    private DBObject query() {
+        return decode(find(), document);
+    }
+
+    @Test
+    public void projectsOnceFieldsAreStable() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertThat(query().get("title")).isEqualTo("t");
+        }
+        verify(collection, times(3)).find(query);
+
+        query();
+        verify(collection).find(query, new BasicDBObject("title", 1).append("_id", 1));
+        assertThat(metrics.meter("edu.acu.dropwizard.configuration.mongo.ProjectionLearner.projected-queries").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void fetchesWholeDocumentsForFieldsOutsideProjectionInOneQuery() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            query().get("title");
+        }
+        BasicDBObject other = new BasicDBObject("_id", 2).append("title", "u").append("body", "c");
+        BasicDBObject lookup = new BasicDBObject("_id", new BasicDBObject("$in", Arrays.asList(1, 2)));
+        DBCursor full = mock(DBCursor.class);
+        when(full.iterator()).thenReturn(Arrays.<DBObject>asList(document, other).iterator());
+        when(collection.find(lookup)).thenReturn(full);
+
+        DBDecoderFactory decoder = find();
+        DBObject first = decode(decoder, document);
+        DBObject second = decode(decoder, other);
+        assertThat(first.get("body")).isEqualTo("b");
+        assertThat(second.get("body")).isEqualTo("c");
+        verify(collection, times(1)).find(lookup);
+        verify(full).close();
+        assertThat(metrics.meter("edu.acu.dropwizard.configuration.mongo.ProjectionLearner.fallbacks").getCount()).isEqualTo(1);
+
+        // Back to learning
+        query();
+        verify(collection, times(4)).find(query);
+    }
+
+    @Test
+    public void leavesCollectionsWithTheirOwnDecoderAlone() throws Exception {
+        when(collection.getDBDecoderFactory()).thenReturn(mock(DBDecoderFactory.class));
+
+        for (int i = 0; i < 4; i++) {
+            learner.find("site", collection, query);
+        }
+
+        verify(collection, times(4)).find(query);
+        verify(cursor, never()).setDecoderFactory(any(DBDecoderFactory.class));
+    }
+
+}